@@ -0,0 +1,102 @@
+package de.hafas.slidinguppanel;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.view.OnApplyWindowInsetsListener;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.WindowInsetsAnimationCompat;
+import androidx.core.view.WindowInsetsCompat;
+
+import java.util.List;
+
+/**
+ * Tracks how far the input method overlaps a view. While the input method animates in or out,
+ * the overlap is reported for every frame of the animation on API 30+ and, as far as the
+ * compat library supports it, on older versions. Without animation frames only the final
+ * overlap is reported when the insets are applied.
+ */
+class ImeInsetTracker extends WindowInsetsAnimationCompat.Callback implements OnApplyWindowInsetsListener {
+    interface Callback {
+        /**
+         * @param imeInset  The height in pixels the input method overlaps the bottom of the view
+         * @param animating True, if the value belongs to a running inset animation and more
+         *                  values will follow
+         */
+        void onImeInsetChanged(int imeInset, boolean animating);
+    }
+
+    @NonNull
+    private final View view;
+    @NonNull
+    private final Callback callback;
+    private final int[] tmpLocation = new int[2];
+    private boolean imeAnimationRunning;
+
+    ImeInsetTracker(@NonNull View view, @NonNull Callback callback) {
+        super(DISPATCH_MODE_CONTINUE_ON_SUBTREE);
+        this.view = view;
+        this.callback = callback;
+    }
+
+    void attach() {
+        ViewCompat.setOnApplyWindowInsetsListener(view, this);
+        ViewCompat.setWindowInsetsAnimationCallback(view, this);
+        ViewCompat.requestApplyInsets(view);
+    }
+
+    void detach() {
+        ViewCompat.setOnApplyWindowInsetsListener(view, null);
+        ViewCompat.setWindowInsetsAnimationCallback(view, null);
+        imeAnimationRunning = false;
+        callback.onImeInsetChanged(0, false);
+    }
+
+    @NonNull
+    @Override
+    public WindowInsetsCompat onApplyWindowInsets(@NonNull View v, @NonNull WindowInsetsCompat insets) {
+        if (!imeAnimationRunning) {
+            callback.onImeInsetChanged(computeOverlap(insets), false);
+        }
+        return ViewCompat.onApplyWindowInsets(v, insets);
+    }
+
+    @Override
+    public void onPrepare(@NonNull WindowInsetsAnimationCompat animation) {
+        if ((animation.getTypeMask() & WindowInsetsCompat.Type.ime()) != 0) {
+            imeAnimationRunning = true;
+        }
+    }
+
+    @NonNull
+    @Override
+    public WindowInsetsCompat onProgress(@NonNull WindowInsetsCompat insets, @NonNull List<WindowInsetsAnimationCompat> runningAnimations) {
+        if (imeAnimationRunning) {
+            callback.onImeInsetChanged(computeOverlap(insets), true);
+        }
+        return insets;
+    }
+
+    @Override
+    public void onEnd(@NonNull WindowInsetsAnimationCompat animation) {
+        if ((animation.getTypeMask() & WindowInsetsCompat.Type.ime()) != 0 && imeAnimationRunning) {
+            imeAnimationRunning = false;
+            WindowInsetsCompat insets = ViewCompat.getRootWindowInsets(view);
+            callback.onImeInsetChanged(insets != null ? computeOverlap(insets) : 0, false);
+        }
+    }
+
+    /**
+     * The IME insets are relative to the window, the view does not necessarily end at its bottom.
+     */
+    private int computeOverlap(@NonNull WindowInsetsCompat insets) {
+        int imeBottom = insets.getInsets(WindowInsetsCompat.Type.ime()).bottom;
+        if (imeBottom == 0) {
+            return 0;
+        }
+        view.getLocationInWindow(tmpLocation);
+        int viewBottom = tmpLocation[1] + view.getHeight();
+        int imeTop = view.getRootView().getHeight() - imeBottom;
+        return Math.max(0, viewBottom - imeTop);
+    }
+}
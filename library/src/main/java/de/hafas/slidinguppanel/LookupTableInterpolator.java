@@ -0,0 +1,92 @@
+package de.hafas.slidinguppanel;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.SparseArray;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+
+import androidx.annotation.AnimRes;
+import androidx.annotation.InterpolatorRes;
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An interpolator that samples another interpolator into a table once and linearly interpolates
+ * between the samples, so every call takes constant time and allocates nothing. This pays off for
+ * interpolators like {@link android.view.animation.PathInterpolator}, which search their path on
+ * every call during a snap.
+ * <p>
+ * Tables loaded from resources are shared by all panels using the same resource with the same
+ * {@link Resources} and configuration, since an interpolator may have resource qualifiers.
+ */
+final class LookupTableInterpolator implements Interpolator {
+    private static final int TABLE_SIZE = 257;
+
+    /**
+     * Tables per resources, which are updated in place on configuration changes
+     */
+    private static final Map<Resources, CachedTables> CACHE = new WeakHashMap<>();
+
+    private final float[] values = new float[TABLE_SIZE];
+
+    LookupTableInterpolator(@NonNull Interpolator source) {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            values[i] = source.getInterpolation((float) i / (TABLE_SIZE - 1));
+        }
+    }
+
+    /**
+     * Loads the interpolator with the given id and samples it, unless a table for this resource
+     * was created before with the resources and configuration of the context.
+     *
+     * @param context         The context to load the interpolator with
+     * @param interpolatorRes The resource id of the interpolator
+     * @return The shared lookup table for the resource
+     */
+    @NonNull
+    static LookupTableInterpolator load(@NonNull Context context, @AnimRes @InterpolatorRes int interpolatorRes) {
+        final Resources resources = context.getResources();
+        synchronized (CACHE) {
+            CachedTables tables = CACHE.get(resources);
+            if (tables == null || !tables.configuration.equals(resources.getConfiguration())) {
+                tables = new CachedTables(resources.getConfiguration());
+                CACHE.put(resources, tables);
+            }
+            LookupTableInterpolator interpolator = tables.interpolators.get(interpolatorRes);
+            if (interpolator == null) {
+                interpolator = new LookupTableInterpolator(AnimationUtils.loadInterpolator(context, interpolatorRes));
+                tables.interpolators.put(interpolatorRes, interpolator);
+            }
+            return interpolator;
+        }
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        if (input <= 0f) {
+            return values[0];
+        } else if (input >= 1f) {
+            return values[TABLE_SIZE - 1];
+        }
+        float position = input * (TABLE_SIZE - 1);
+        int index = (int) position;
+        float fraction = position - index;
+        return values[index] + (values[index + 1] - values[index]) * fraction;
+    }
+
+    private static final class CachedTables {
+        /**
+         * Copy of the configuration the tables were loaded with
+         */
+        final Configuration configuration;
+        final SparseArray<LookupTableInterpolator> interpolators = new SparseArray<>();
+
+        CachedTables(@NonNull Configuration configuration) {
+            this.configuration = new Configuration(configuration);
+        }
+    }
+}
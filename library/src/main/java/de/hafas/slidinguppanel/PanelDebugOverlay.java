@@ -0,0 +1,62 @@
+package de.hafas.slidinguppanel;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.TypedValue;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Draws the current {@link PanelMetrics} on top of a {@link SlidingUpPanelLayout}.
+ */
+class PanelDebugOverlay {
+    private static final int TEXT_SIZE = 12; // sp
+    private static final int BACKGROUND_COLOR = 0xB0000000;
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final float lineHeight;
+    private final float padding;
+
+    PanelDebugOverlay(@NonNull Context context) {
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE,
+                context.getResources().getDisplayMetrics()));
+        backgroundPaint.setColor(BACKGROUND_COLOR);
+        Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+        lineHeight = fontMetrics.descent - fontMetrics.ascent;
+        padding = lineHeight / 2;
+    }
+
+    void draw(@NonNull Canvas canvas, @NonNull PanelMetrics metrics, @NonNull SlidingUpPanelLayout.PanelState state,
+              float slideOffset, int left, int top) {
+        PanelMetrics.TouchLatency latency = metrics.getLastTouchLatency();
+        String[] lines = new String[]{
+                String.format(Locale.US, "frame %.1f ms", metrics.getFrameTimeMillis()),
+                String.format(Locale.US, "slide updates/frame %d", metrics.getSlideUpdatesPerFrame()),
+                String.format(Locale.US, "layout %d / measure %d per gesture",
+                        metrics.getLayoutPassesInGesture(), metrics.getMeasurePassesInGesture()),
+                String.format(Locale.US, "listeners %.2f ms/frame", metrics.getListenerDispatchMillisPerFrame()),
+                String.format(Locale.US, "%s offset %.3f", state, slideOffset),
+                String.format(Locale.US, "snap target %.3f velocity %.0f px/s",
+                        metrics.getSnapTarget(), metrics.getReleaseVelocity()),
+                latency == null ? "touch latency -" : String.format(Locale.US, "touch latency p50 %d p90 %d p99 %d ms",
+                        latency.getP50Millis(), latency.getP90Millis(), latency.getP99Millis()),
+        };
+        float width = 0;
+        for (String line : lines) {
+            width = Math.max(width, textPaint.measureText(line));
+        }
+        canvas.drawRect(left, top, left + width + 2 * padding, top + lines.length * lineHeight + 2 * padding,
+                backgroundPaint);
+        float baseline = top + padding - textPaint.getFontMetrics().ascent;
+        for (String line : lines) {
+            canvas.drawText(line, left + padding, baseline, textPaint);
+            baseline += lineHeight;
+        }
+    }
+}
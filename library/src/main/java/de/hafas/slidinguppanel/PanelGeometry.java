@@ -0,0 +1,100 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+import androidx.core.math.MathUtils;
+
+/**
+ * Geometry and snap logic of the panel, shared by {@link SlidingUpPanelLayout} and
+ * {@link SlidingUpPanelBehavior}.
+ * <p>
+ * All positions are relative to the parent of the panel. The bottom is the lower edge of the area
+ * the panel can move in, the collapsed height is the height of the visible part of a collapsed
+ * panel including a sticky footer and the slide range is the distance between the collapsed
+ * and the expanded position.
+ */
+final class PanelGeometry {
+    private PanelGeometry() {
+    }
+
+    /**
+     * @return The top position of the panel for the given slide offset
+     */
+    static int computePanelTop(float slideOffset, int bottom, int collapsedHeight, int slideRange) {
+        int slidePixelOffset;
+        if (slideOffset >= 0) {
+            slidePixelOffset = (int) (collapsedHeight + (slideOffset * slideRange));
+        } else {
+            slidePixelOffset = (int) (collapsedHeight * (1.0f + slideOffset));
+        }
+        return bottom - slidePixelOffset;
+    }
+
+    /**
+     * Inverse of {@link #computePanelTop(float, int, int, int)}
+     */
+    static float computeSlideOffset(int panelTop, int bottom, int collapsedHeight, int slideRange) {
+        int slidePixelOffset = bottom - panelTop;
+        float slideOffset;
+        if (slidePixelOffset >= collapsedHeight) {
+            slideOffset = slideRange > 0 ? (float) (slidePixelOffset - collapsedHeight) / slideRange : 0;
+        } else {
+            slideOffset = collapsedHeight > 0 ? (float) slidePixelOffset / collapsedHeight - 1.0f : -1.0f;
+        }
+        return MathUtils.clamp(slideOffset, -1.0f, 1.0f);
+    }
+
+    /**
+     * @return The slide offset the panel snaps to after it was released at the given offset
+     */
+    static float calculateSnapPoint(float slideOffset, float anchorPoint, boolean flingUp, boolean flingDown) {
+        if (flingUp) {
+            return slideOffset > anchorPoint ? 1.0f : anchorPoint;
+        } else if (flingDown) {
+            return slideOffset < anchorPoint ? 0.0f : anchorPoint;
+        } else {
+            float anchorDistance = Math.abs(slideOffset - anchorPoint);
+            float expandedDistance = 1.0f - slideOffset;
+            return slideOffset < anchorDistance ? 0.0f : anchorDistance < expandedDistance ? anchorPoint : 1.0f;
+        }
+    }
+
+    /**
+     * @return The state of a panel that settled at the given slide offset
+     */
+    @NonNull
+    static SlidingUpPanelLayout.PanelState getSettledState(float slideOffset) {
+        if (isFloatEqual(slideOffset, 1)) {
+            return SlidingUpPanelLayout.PanelState.EXPANDED;
+        } else if (isFloatEqual(slideOffset, 0)) {
+            return SlidingUpPanelLayout.PanelState.COLLAPSED;
+        } else if (isFloatEqual(slideOffset, -1)) {
+            return SlidingUpPanelLayout.PanelState.HIDDEN;
+        } else {
+            return SlidingUpPanelLayout.PanelState.ANCHORED;
+        }
+    }
+
+    /**
+     * @return The translation of the content behind the panel
+     */
+    static int computeParallaxOffset(int parallaxOffset, float slideOffset) {
+        // Clamp slide offset at zero for parallax computation;
+        return -(int) (parallaxOffset * Math.max(slideOffset, 0));
+    }
+
+    /**
+     * @return The color the content behind the panel is covered with, 0 if it is not faded
+     */
+    static int computeFadeColor(int fadeColor, float slideOffset) {
+        if (fadeColor == 0 || slideOffset <= 0) {
+            return 0;
+        }
+        final int baseAlpha = (fadeColor & 0xff000000) >>> 24;
+        final int imag = (int) (baseAlpha * slideOffset);
+        return imag << 24 | (fadeColor & 0xffffff);
+    }
+
+    static boolean isFloatEqual(float value, float expected) {
+        return Math.abs(value - expected) < 0.000001;
+    }
+}
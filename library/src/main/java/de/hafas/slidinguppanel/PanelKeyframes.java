@@ -0,0 +1,270 @@
+package de.hafas.slidinguppanel;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.util.Xml;
+import android.view.InflateException;
+import android.view.View;
+
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.XmlRes;
+import androidx.core.view.ViewCompat;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.hafas.slidinguppanel.library.R;
+
+/**
+ * Declarative animations of view properties linked to the slide offset of the panel, applied by
+ * {@link SlidingUpPanelLayout} in a single pass whenever the panel moves. This replaces
+ * {@link SlidingUpPanelLayout.PanelSlideListener}s that only map the slide offset to alpha,
+ * translation, scale, rotation or elevation of views.
+ * <p>
+ * Each binding maps slide offsets to values with keyframes, values between two keyframes are
+ * interpolated linearly. The keyframes are sampled into a table when the bindings are built, so
+ * applying them is a table lookup per binding. The properties are plain render properties of
+ * the views, so changing them does not require a layout or a redraw of the view content.
+ * <p>
+ * Keyframes can be defined in code with a {@link Builder} or in an XML resource, set with the
+ * {@code hafasKeyframes} attribute:
+ * <pre>
+ * &lt;keyframes xmlns:app="http://schemas.android.com/apk/res-auto"&gt;
+ *     &lt;bind app:hafasTarget="@id/header" app:hafasProperty="alpha"&gt;
+ *         &lt;keyframe app:hafasOffset="0" app:hafasValue="1" /&gt;
+ *         &lt;keyframe app:hafasOffset="0.5" app:hafasValue="0" /&gt;
+ *     &lt;/bind&gt;
+ * &lt;/keyframes&gt;
+ * </pre>
+ * Instances are immutable and can be shared between layouts.
+ */
+public final class PanelKeyframes {
+    /**
+     * Number of samples per binding, covering the slide offset range [-1, 1]
+     */
+    private static final int TABLE_SIZE = 201;
+    private static final float TABLE_SCALE = (TABLE_SIZE - 1) / 2f;
+
+    /**
+     * Animatable view properties
+     */
+    public enum Property {
+        ALPHA,
+        TRANSLATION_X,
+        TRANSLATION_Y,
+        SCALE_X,
+        SCALE_Y,
+        ROTATION,
+        ELEVATION
+    }
+
+    @NonNull
+    private final int[] targetIds;
+    @NonNull
+    private final Property[] properties;
+    @NonNull
+    private final float[][] tables;
+
+    private PanelKeyframes(@NonNull Builder builder) {
+        int count = builder.targetIds.size();
+        targetIds = new int[count];
+        properties = new Property[count];
+        tables = new float[count][];
+        for (int i = 0; i < count; i++) {
+            targetIds[i] = builder.targetIds.get(i);
+            properties[i] = builder.properties.get(i);
+            tables[i] = sample(builder.offsets.get(i), builder.values.get(i));
+        }
+    }
+
+    /**
+     * Loads keyframes from an XML resource.
+     *
+     * @param context Context to load the resource with
+     * @param resId   The XML resource
+     * @return The keyframes
+     * @throws InflateException If the resource is malformed
+     */
+    @NonNull
+    public static PanelKeyframes inflate(@NonNull Context context, @XmlRes int resId) {
+        Builder builder = new Builder();
+        XmlResourceParser parser = context.getResources().getXml(resId);
+        try {
+            AttributeSet attrs = Xml.asAttributeSet(parser);
+            TypedValue value = new TypedValue();
+            int targetId = View.NO_ID;
+            Property property = null;
+            List<Float> offsets = new ArrayList<>();
+            List<Float> values = new ArrayList<>();
+            int eventType;
+            while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && "bind".equals(parser.getName())) {
+                    TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.SlidingUpPanelKeyframesBind);
+                    targetId = ta.getResourceId(R.styleable.SlidingUpPanelKeyframesBind_hafasTarget, View.NO_ID);
+                    property = ta.hasValue(R.styleable.SlidingUpPanelKeyframesBind_hafasProperty)
+                            ? Property.values()[ta.getInt(R.styleable.SlidingUpPanelKeyframesBind_hafasProperty, 0)]
+                            : null;
+                    ta.recycle();
+                    offsets.clear();
+                    values.clear();
+                } else if (eventType == XmlPullParser.START_TAG && "keyframe".equals(parser.getName())) {
+                    TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.SlidingUpPanelKeyframesKeyframe);
+                    if (!ta.hasValue(R.styleable.SlidingUpPanelKeyframesKeyframe_hafasOffset)
+                            || !ta.getValue(R.styleable.SlidingUpPanelKeyframesKeyframe_hafasValue, value)) {
+                        ta.recycle();
+                        throw new InflateException(parser.getPositionDescription() + ": keyframe needs a hafasOffset and a hafasValue");
+                    }
+                    offsets.add(ta.getFloat(R.styleable.SlidingUpPanelKeyframesKeyframe_hafasOffset, 0));
+                    values.add(value.type == TypedValue.TYPE_DIMENSION
+                            ? value.getDimension(context.getResources().getDisplayMetrics())
+                            : value.getFloat());
+                    ta.recycle();
+                } else if (eventType == XmlPullParser.END_TAG && "bind".equals(parser.getName())) {
+                    if (targetId == View.NO_ID || property == null) {
+                        throw new InflateException(parser.getPositionDescription() + ": bind needs a hafasTarget and a hafasProperty");
+                    }
+                    builder.bind(targetId, property, toArray(offsets), toArray(values));
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            throw new InflateException("Can't load panel keyframes", e);
+        } catch (IllegalArgumentException e) {
+            throw new InflateException(parser.getPositionDescription() + ": " + e.getMessage(), e);
+        } finally {
+            parser.close();
+        }
+        return builder.build();
+    }
+
+    private static float[] toArray(List<Float> list) {
+        float[] array = new float[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Samples the keyframes over the slide offset range [-1, 1].
+     */
+    private static float[] sample(float[] offsets, float[] values) {
+        float[] table = new float[TABLE_SIZE];
+        int keyframe = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            float offset = i / TABLE_SCALE - 1;
+            while (keyframe < offsets.length - 1 && offsets[keyframe + 1] <= offset) {
+                keyframe++;
+            }
+            if (offset <= offsets[0]) {
+                table[i] = values[0];
+            } else if (keyframe == offsets.length - 1) {
+                table[i] = values[keyframe];
+            } else {
+                float fraction = (offset - offsets[keyframe]) / (offsets[keyframe + 1] - offsets[keyframe]);
+                table[i] = values[keyframe] + fraction * (values[keyframe + 1] - values[keyframe]);
+            }
+        }
+        return table;
+    }
+
+    int size() {
+        return targetIds.length;
+    }
+
+    /**
+     * Applies all bindings for the given slide offset.
+     *
+     * @param root        The view to find the targets in
+     * @param targetCache Cache of the target views with {@link #size()} entries, filled on demand
+     * @param slideOffset The current slide offset
+     */
+    void apply(@NonNull View root, @NonNull View[] targetCache, float slideOffset) {
+        float position = (Math.max(-1f, Math.min(1f, slideOffset)) + 1) * TABLE_SCALE;
+        int index = Math.min((int) position, TABLE_SIZE - 2);
+        float fraction = position - index;
+        for (int i = 0; i < targetIds.length; i++) {
+            View target = targetCache[i];
+            if (target == null || target.getParent() == null) {
+                target = targetCache[i] = root.findViewById(targetIds[i]);
+                if (target == null) {
+                    continue;
+                }
+            }
+            float[] table = tables[i];
+            float value = table[index] + fraction * (table[index + 1] - table[index]);
+            switch (properties[i]) {
+                case ALPHA:
+                    target.setAlpha(value);
+                    break;
+                case TRANSLATION_X:
+                    target.setTranslationX(value);
+                    break;
+                case TRANSLATION_Y:
+                    target.setTranslationY(value);
+                    break;
+                case SCALE_X:
+                    target.setScaleX(value);
+                    break;
+                case SCALE_Y:
+                    target.setScaleY(value);
+                    break;
+                case ROTATION:
+                    target.setRotation(value);
+                    break;
+                case ELEVATION:
+                    ViewCompat.setElevation(target, value);
+                    break;
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final List<Integer> targetIds = new ArrayList<>();
+        private final List<Property> properties = new ArrayList<>();
+        private final List<float[]> offsets = new ArrayList<>();
+        private final List<float[]> values = new ArrayList<>();
+
+        /**
+         * Binds a property of a view to the slide offset.
+         *
+         * @param targetId The id of the view, which must be a descendant of the layout
+         * @param property The property to animate
+         * @param offsets  Slide offsets of the keyframes in ascending order, from -1 (hidden) to
+         *                 1 (expanded). The property keeps the value of the first or last keyframe
+         *                 outside of this range.
+         * @param values   Values of the property at the keyframes. Translations and elevation are
+         *                 in pixels.
+         * @return This builder
+         */
+        @NonNull
+        public Builder bind(@IdRes int targetId, @NonNull Property property, @NonNull float[] offsets, @NonNull float[] values) {
+            if (offsets.length == 0 || offsets.length != values.length) {
+                throw new IllegalArgumentException("Keyframes need the same, non-zero number of offsets and values");
+            }
+            for (int i = 1; i < offsets.length; i++) {
+                if (offsets[i] <= offsets[i - 1]) {
+                    throw new IllegalArgumentException("Keyframe offsets must be ascending: " + Arrays.toString(offsets));
+                }
+            }
+            targetIds.add(targetId);
+            properties.add(property);
+            this.offsets.add(offsets.clone());
+            this.values.add(values.clone());
+            return this;
+        }
+
+        @NonNull
+        public PanelKeyframes build() {
+            return new PanelKeyframes(this);
+        }
+    }
+}
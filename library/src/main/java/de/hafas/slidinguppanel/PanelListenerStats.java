@@ -0,0 +1,97 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time spent in {@link SlidingUpPanelLayout.PanelSlideListener#onPanelSlide(android.view.View, float)}
+ * by a single listener, recorded while a listener budget is set.
+ *
+ * @see SlidingUpPanelLayout#setListenerBudget(long, int, SlidingUpPanelLayout.ListenerBudgetCallback)
+ */
+public final class PanelListenerStats {
+    @NonNull
+    private final Class<? extends SlidingUpPanelLayout.PanelSlideListener> listenerClass;
+    private int callCount;
+    private int overBudgetCount;
+    private long cumulativeNanos;
+    private long maxNanos;
+    private boolean demoted;
+
+    PanelListenerStats(@NonNull Class<? extends SlidingUpPanelLayout.PanelSlideListener> listenerClass) {
+        this.listenerClass = listenerClass;
+    }
+
+    /**
+     * @return The class of the listener
+     */
+    @NonNull
+    public Class<? extends SlidingUpPanelLayout.PanelSlideListener> getListenerClass() {
+        return listenerClass;
+    }
+
+    /**
+     * @return How often the listener was called synchronously
+     */
+    public int getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return How often a call exceeded the budget
+     */
+    public int getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    /**
+     * @return The total time spent in the listener in milliseconds
+     */
+    public float getCumulativeMillis() {
+        return cumulativeNanos / 1000000f;
+    }
+
+    /**
+     * @return The longest call of the listener in milliseconds
+     */
+    public float getMaxMillis() {
+        return maxNanos / 1000000f;
+    }
+
+    /**
+     * @return True, if the listener exceeded the budget too often and now only receives the latest
+     * slide offset once per frame
+     */
+    public boolean isDemoted() {
+        return demoted;
+    }
+
+    /**
+     * Records a call of the listener.
+     *
+     * @return True, if the call exceeded the budget
+     */
+    boolean record(long durationNanos, long budgetNanos) {
+        callCount++;
+        cumulativeNanos += durationNanos;
+        maxNanos = Math.max(maxNanos, durationNanos);
+        if (durationNanos > budgetNanos) {
+            overBudgetCount++;
+            return true;
+        }
+        return false;
+    }
+
+    void setDemoted() {
+        demoted = true;
+    }
+
+    @Override
+    public String toString() {
+        return "PanelListenerStats{" + listenerClass.getName()
+                + ", calls=" + callCount
+                + ", overBudget=" + overBudgetCount
+                + ", cumulative=" + getCumulativeMillis() + "ms"
+                + ", max=" + getMaxMillis() + "ms"
+                + ", demoted=" + demoted + '}';
+    }
+}
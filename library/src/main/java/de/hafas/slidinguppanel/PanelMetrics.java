@@ -0,0 +1,273 @@
+package de.hafas.slidinguppanel;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Runtime costs of a {@link SlidingUpPanelLayout}, collected while metrics are enabled with
+ * {@link SlidingUpPanelLayout#setMetricsEnabled(boolean)} or the debug overlay is shown.
+ * <p>
+ * A frame is the time between two draws of the layout. All values are updated on the UI thread.
+ */
+public final class PanelMetrics {
+    private static final int MAX_PENDING_TOUCH_EVENTS = 32;
+    private static final int MAX_GESTURE_LATENCY_SAMPLES = 1024;
+
+    /**
+     * Callback for the end of a gesture.
+     *
+     * @see SlidingUpPanelLayout#addOnGestureMetricsListener(OnGestureMetricsListener)
+     */
+    public interface OnGestureMetricsListener {
+        /**
+         * Called on the UI thread after the panel settled at the end of a drag or a programmatic
+         * slide.
+         *
+         * @param metrics The metrics of the layout, the gesture related values describe the
+         *                finished gesture
+         */
+        void onGestureMetrics(@NonNull PanelMetrics metrics);
+    }
+
+    /**
+     * Distribution of the touch-to-draw latency of a single gesture: the time from
+     * {@link android.view.MotionEvent#getEventTime()} of every touch event that moved the panel
+     * until the layout drew the resulting position. The time the frame then spends in the
+     * RenderThread and the display pipeline is not included.
+     */
+    public static final class TouchLatency {
+        private final int sampleCount;
+        private final int p50Millis;
+        private final int p90Millis;
+        private final int p99Millis;
+        private final int maxMillis;
+
+        TouchLatency(int sampleCount, int p50Millis, int p90Millis, int p99Millis, int maxMillis) {
+            this.sampleCount = sampleCount;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        /**
+         * @return Number of touch events the latency was measured for
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        public int getP50Millis() {
+            return p50Millis;
+        }
+
+        public int getP90Millis() {
+            return p90Millis;
+        }
+
+        public int getP99Millis() {
+            return p99Millis;
+        }
+
+        public int getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "TouchLatency{samples=" + sampleCount + ", p50=" + p50Millis + "ms, p90=" + p90Millis
+                    + "ms, p99=" + p99Millis + "ms, max=" + maxMillis + "ms}";
+        }
+    }
+
+    private long lastFrameStartNanos;
+    private long frameTimeNanos;
+
+    private int pendingSlideUpdates;
+    private int slideUpdatesPerFrame;
+
+    private long pendingListenerDispatchNanos;
+    private long listenerDispatchNanosPerFrame;
+
+    private int layoutPassesInGesture;
+    private int measurePassesInGesture;
+
+    private float snapTarget = Float.NaN;
+    private float releaseVelocity;
+
+    private boolean inGesture;
+    private final long[] pendingTouchEventTimes = new long[MAX_PENDING_TOUCH_EVENTS];
+    private int pendingTouchEventCount;
+    private final int[] gestureLatencySamples = new int[MAX_GESTURE_LATENCY_SAMPLES];
+    private int gestureLatencySampleCount;
+    @Nullable
+    private TouchLatency lastTouchLatency;
+
+    PanelMetrics() {
+    }
+
+    /**
+     * @return The time between the last two draws of the layout in milliseconds
+     */
+    public float getFrameTimeMillis() {
+        return frameTimeNanos / 1000000f;
+    }
+
+    /**
+     * @return How often the slide offset changed within the last frame
+     */
+    public int getSlideUpdatesPerFrame() {
+        return slideUpdatesPerFrame;
+    }
+
+    /**
+     * @return The time spent in {@link SlidingUpPanelLayout.PanelSlideListener#onPanelSlide(android.view.View, float)}
+     * calls within the last frame in milliseconds
+     */
+    public float getListenerDispatchMillisPerFrame() {
+        return listenerDispatchNanosPerFrame / 1000000f;
+    }
+
+    /**
+     * @return Number of layout passes since the current or last gesture started
+     */
+    public int getLayoutPassesInGesture() {
+        return layoutPassesInGesture;
+    }
+
+    /**
+     * @return Number of measure passes since the current or last gesture started
+     */
+    public int getMeasurePassesInGesture() {
+        return measurePassesInGesture;
+    }
+
+    /**
+     * @return The slide offset the panel is currently snapping to or {@link Float#NaN} if it is
+     * not snapping
+     */
+    public float getSnapTarget() {
+        return snapTarget;
+    }
+
+    /**
+     * @return The vertical velocity in pixels per second at the end of the last drag
+     */
+    public float getReleaseVelocity() {
+        return releaseVelocity;
+    }
+
+    /**
+     * @return The touch latency of the last finished gesture or null if no gesture moved the panel
+     * by touch yet
+     */
+    @Nullable
+    public TouchLatency getLastTouchLatency() {
+        return lastTouchLatency;
+    }
+
+    void onFrameDrawn() {
+        long now = System.nanoTime();
+        if (lastFrameStartNanos != 0) {
+            frameTimeNanos = now - lastFrameStartNanos;
+        }
+        lastFrameStartNanos = now;
+        slideUpdatesPerFrame = pendingSlideUpdates;
+        pendingSlideUpdates = 0;
+        listenerDispatchNanosPerFrame = pendingListenerDispatchNanos;
+        pendingListenerDispatchNanos = 0;
+
+        if (pendingTouchEventCount > 0) {
+            long nowMillis = SystemClock.uptimeMillis();
+            for (int i = 0; i < pendingTouchEventCount && gestureLatencySampleCount < MAX_GESTURE_LATENCY_SAMPLES; i++) {
+                gestureLatencySamples[gestureLatencySampleCount++] = (int) (nowMillis - pendingTouchEventTimes[i]);
+            }
+            pendingTouchEventCount = 0;
+        }
+    }
+
+    /**
+     * Records a touch event that moved the panel, its latency is measured when the next frame is drawn.
+     */
+    void onTouchEventConsumed(long eventTime) {
+        if (pendingTouchEventCount < MAX_PENDING_TOUCH_EVENTS) {
+            pendingTouchEventTimes[pendingTouchEventCount++] = eventTime;
+        }
+    }
+
+    void onSlideUpdate() {
+        pendingSlideUpdates++;
+    }
+
+    void onListenerDispatch(long durationNanos) {
+        pendingListenerDispatchNanos += durationNanos;
+    }
+
+    /**
+     * Called when the panel starts moving. A drag that catches a running snap continues the
+     * current gesture.
+     */
+    void onGestureStarted() {
+        if (inGesture) {
+            return;
+        }
+        inGesture = true;
+        layoutPassesInGesture = 0;
+        measurePassesInGesture = 0;
+        gestureLatencySampleCount = 0;
+        pendingTouchEventCount = 0;
+    }
+
+    /**
+     * Called when the gesture ends without the panel settling, e.g. when the panel is hidden
+     * because its view is not visible anymore. The samples of the gesture are discarded.
+     */
+    void onGestureCancelled() {
+        inGesture = false;
+        gestureLatencySampleCount = 0;
+        pendingTouchEventCount = 0;
+    }
+
+    /**
+     * Called when the panel settled, computes the touch latency of the gesture.
+     */
+    void onGestureFinished() {
+        inGesture = false;
+        final int count = gestureLatencySampleCount;
+        if (count == 0) {
+            return;
+        }
+        // the samples are not needed anymore, so they can be sorted in place
+        Arrays.sort(gestureLatencySamples, 0, count);
+        lastTouchLatency = new TouchLatency(count,
+                gestureLatencySamples[percentileIndex(count, 50)],
+                gestureLatencySamples[percentileIndex(count, 90)],
+                gestureLatencySamples[percentileIndex(count, 99)],
+                gestureLatencySamples[count - 1]);
+        gestureLatencySampleCount = 0;
+    }
+
+    private static int percentileIndex(int count, int percentile) {
+        return Math.min(count - 1, (count * percentile) / 100);
+    }
+
+    void onLayoutPass() {
+        layoutPassesInGesture++;
+    }
+
+    void onMeasurePass() {
+        measurePassesInGesture++;
+    }
+
+    void setSnapTarget(float snapTarget) {
+        this.snapTarget = snapTarget;
+    }
+
+    void setReleaseVelocity(float releaseVelocity) {
+        this.releaseVelocity = releaseVelocity;
+    }
+}
@@ -0,0 +1,104 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+/**
+ * Immutable description of a panel state change, delivered to a {@link PanelStateObserver}.
+ * <p>
+ * Events are created on the UI thread and may be consumed on any thread.
+ */
+public final class PanelStateEvent {
+
+    /**
+     * What caused the panel to change its state.
+     */
+    public enum Source {
+        /**
+         * The user dragged the panel or its drag view.
+         */
+        TOUCH,
+        /**
+         * A nested scrolling child moved the panel.
+         */
+        NESTED_SCROLL,
+        /**
+         * The state was changed from code, e.g. by {@link SlidingUpPanelLayout#setPanelState(PanelState)}.
+         */
+        PROGRAMMATIC
+    }
+
+    @NonNull
+    private final PanelState previousState;
+    @NonNull
+    private final PanelState newState;
+    private final float slideOffset;
+    private final long timestamp;
+    @NonNull
+    private final Source source;
+
+    PanelStateEvent(@NonNull PanelState previousState, @NonNull PanelState newState, float slideOffset,
+                    long timestamp, @NonNull Source source) {
+        this.previousState = previousState;
+        this.newState = newState;
+        this.slideOffset = slideOffset;
+        this.timestamp = timestamp;
+        this.source = source;
+    }
+
+    /**
+     * @return The state of the panel before this event.
+     */
+    @NonNull
+    public PanelState getPreviousState() {
+        return previousState;
+    }
+
+    /**
+     * @return The state of the panel after this event.
+     */
+    @NonNull
+    public PanelState getNewState() {
+        return newState;
+    }
+
+    /**
+     * @return The slide offset of the panel at the time of the state change, from -1 to 1
+     * where -1 equals to HIDDEN, 0 equals to COLLAPSED and 1 equals to EXPANDED.
+     */
+    public float getSlideOffset() {
+        return slideOffset;
+    }
+
+    /**
+     * @return The time of the state change in the {@link android.os.SystemClock#uptimeMillis()} time base.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return What caused the state change.
+     */
+    @NonNull
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Merges this event with a later one into a single event that spans both state changes.
+     */
+    @NonNull
+    PanelStateEvent conflate(@NonNull PanelStateEvent later) {
+        return new PanelStateEvent(previousState, later.newState, later.slideOffset, later.timestamp, later.source);
+    }
+
+    @Override
+    public String toString() {
+        return "PanelStateEvent{" + previousState + " -> " + newState
+                + ", slideOffset=" + slideOffset
+                + ", timestamp=" + timestamp
+                + ", source=" + source + '}';
+    }
+}
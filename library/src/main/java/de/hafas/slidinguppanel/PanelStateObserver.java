@@ -0,0 +1,23 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Observer for panel state changes that is invoked on an {@link java.util.concurrent.Executor}
+ * instead of the UI thread.
+ *
+ * @see SlidingUpPanelLayout#addPanelStateObserver(java.util.concurrent.Executor, PanelStateObserver)
+ */
+public interface PanelStateObserver {
+    /**
+     * Called on the executor the observer was registered with. Events of a single observer are
+     * delivered in order and never concurrently. If the observer falls behind, consecutive
+     * events are merged, so {@link PanelStateEvent#getPreviousState()} of an event may not equal
+     * the {@link PanelStateEvent#getNewState()} of the event delivered before.
+     *
+     * @param event The state change
+     */
+    @AnyThread
+    void onPanelStateEvent(@NonNull PanelStateEvent event);
+}
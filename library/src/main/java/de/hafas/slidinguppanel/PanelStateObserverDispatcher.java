@@ -0,0 +1,103 @@
+package de.hafas.slidinguppanel;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Delivers {@link PanelStateEvent}s to a single {@link PanelStateObserver} on its executor.
+ * <p>
+ * Events are buffered in a bounded queue. If the queue is full, the newest queued event is merged
+ * with the incoming one, so a slow observer can neither block the UI thread nor build up an
+ * unbounded backlog.
+ */
+class PanelStateObserverDispatcher {
+    private static final String TAG = PanelStateObserverDispatcher.class.getSimpleName();
+
+    /**
+     * Maximum number of events waiting for delivery
+     */
+    private static final int MAX_PENDING_EVENTS = 8;
+
+    @NonNull
+    private final Executor executor;
+    @NonNull
+    private final PanelStateObserver observer;
+
+    private final ArrayDeque<PanelStateEvent> pendingEvents = new ArrayDeque<>(MAX_PENDING_EVENTS);
+    private boolean drainScheduled = false;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                while (true) {
+                    PanelStateEvent event;
+                    synchronized (pendingEvents) {
+                        event = pendingEvents.poll();
+                        if (event == null) {
+                            drainScheduled = false;
+                            drained = true;
+                            return;
+                        }
+                    }
+                    observer.onPanelStateEvent(event);
+                }
+            } finally {
+                if (!drained) {
+                    // the observer threw, which is left to the executor. The remaining and later
+                    // events are still delivered.
+                    boolean reschedule;
+                    synchronized (pendingEvents) {
+                        reschedule = !pendingEvents.isEmpty();
+                        drainScheduled = reschedule;
+                    }
+                    if (reschedule) {
+                        executeDrain();
+                    }
+                }
+            }
+        }
+    };
+
+    PanelStateObserverDispatcher(@NonNull Executor executor, @NonNull PanelStateObserver observer) {
+        this.executor = executor;
+        this.observer = observer;
+    }
+
+    @NonNull
+    PanelStateObserver getObserver() {
+        return observer;
+    }
+
+    void enqueue(@NonNull PanelStateEvent event) {
+        synchronized (pendingEvents) {
+            if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+                event = pendingEvents.pollLast().conflate(event);
+            }
+            pendingEvents.add(event);
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executeDrain();
+    }
+
+    private void executeDrain() {
+        try {
+            executor.execute(drainRunnable);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Executor rejected panel state event delivery", e);
+            synchronized (pendingEvents) {
+                pendingEvents.clear();
+                drainScheduled = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+/**
+ * Transition table of the panel states. A resting panel only leaves its state by moving, which
+ * is {@link PanelState#DRAGGING} for touches, nested scrolls and animations alike, and a moving
+ * panel settles in one of the resting states.
+ * <p>
+ * Before the first layout, the state is only a request for the initial position and can be
+ * changed freely. The table is for diagnostics only and does not prevent any transition: an
+ * invalid transition of a laid out panel points to a bug in the layout and is reported as an
+ * {@link PanelStrictMode.ViolationType#INVARIANT} violation if the strict mode policy detects
+ * them, otherwise it is applied like any other.
+ */
+final class PanelStateTransitions {
+    private static final Map<PanelState, Set<PanelState>> TRANSITIONS = new EnumMap<>(PanelState.class);
+
+    static {
+        TRANSITIONS.put(PanelState.COLLAPSED, EnumSet.of(PanelState.DRAGGING));
+        TRANSITIONS.put(PanelState.ANCHORED, EnumSet.of(PanelState.DRAGGING));
+        TRANSITIONS.put(PanelState.EXPANDED, EnumSet.of(PanelState.DRAGGING));
+        TRANSITIONS.put(PanelState.HIDDEN, EnumSet.of(PanelState.DRAGGING));
+        TRANSITIONS.put(PanelState.DRAGGING, EnumSet.of(PanelState.COLLAPSED, PanelState.ANCHORED,
+                PanelState.EXPANDED, PanelState.HIDDEN));
+    }
+
+    private PanelStateTransitions() {
+    }
+
+    /**
+     * @return True, if a laid out panel can change from the given to the new state
+     */
+    static boolean isValid(@NonNull PanelState from, @NonNull PanelState to) {
+        return TRANSITIONS.get(from).contains(to);
+    }
+}
@@ -0,0 +1,274 @@
+package de.hafas.slidinguppanel;
+
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Debug tool to detect work that breaks the zero-layout guarantee of the panel: while the panel is
+ * dragged or snaps between collapsed, anchored and expanded, it only moves views and redraws
+ * itself. Layout requests, measure passes or redraws of views within the panel's subtree during
+ * that time are reported as {@link Violation}s.
+ * <p>
+ * Usage:
+ * <pre>
+ * slidingUpPanelLayout.setStrictModePolicy(new PanelStrictMode.Policy.Builder()
+ *         .detectAll()
+ *         .penaltyLog()
+ *         .build());
+ * </pre>
+ * Movements from or to the hidden state are not checked, since the main view is resized then.
+ * <p>
+ * The policy can also check the internal consistency of the panel after every layout, movement
+ * and settle, e.g. while a test drives random gestures, state changes and size changes against
+ * the layout, see {@link Policy.Builder#detectInvariantViolations()}.
+ */
+public final class PanelStrictMode {
+    private static final String TAG = PanelStrictMode.class.getSimpleName();
+
+    private PanelStrictMode() {
+    }
+
+    /**
+     * Kind of work that was detected
+     */
+    public enum ViolationType {
+        /**
+         * A view requested a layout
+         */
+        LAYOUT,
+        /**
+         * The layout was measured
+         */
+        MEASURE,
+        /**
+         * A view within the subtree was invalidated and needs to re-record its drawing. Only
+         * detected on API 26 and above. Position changes of the direct children, which the panel
+         * does itself, are not reported.
+         */
+        REDRAW,
+        /**
+         * The slide offset, the state and the position of the panel are not consistent. Detected
+         * at any time, not only while the panel moves.
+         */
+        INVARIANT
+    }
+
+    /**
+     * Callback for {@link Policy.Builder#penaltyListener(OnViolationListener)}
+     */
+    public interface OnViolationListener {
+        /**
+         * Called on the UI thread when a violation is detected
+         *
+         * @param violation The violation, its stack trace points to the offending call
+         */
+        void onViolation(@NonNull Violation violation);
+    }
+
+    /**
+     * A detected violation. The stack trace of this exception points to the offending call.
+     */
+    public static final class Violation extends RuntimeException {
+        @NonNull
+        private final ViolationType type;
+        @Nullable
+        private final transient View view;
+
+        Violation(@NonNull ViolationType type, @Nullable View view) {
+            super(type + " during panel movement" + (view != null ? " caused by " + view : ""));
+            this.type = type;
+            this.view = view;
+        }
+
+        Violation(@NonNull ViolationType type, @NonNull String message) {
+            super(type + ": " + message);
+            this.type = type;
+            this.view = null;
+        }
+
+        /**
+         * @return The kind of work that was detected
+         */
+        @NonNull
+        public ViolationType getType() {
+            return type;
+        }
+
+        /**
+         * @return The view that caused the violation, if it could be determined
+         */
+        @Nullable
+        public View getView() {
+            return view;
+        }
+    }
+
+    /**
+     * Defines what is detected and how violations are reported.
+     */
+    public static final class Policy {
+        private final boolean detectLayout;
+        private final boolean detectMeasure;
+        private final boolean detectRedraw;
+        private final boolean detectInvariant;
+        private final boolean penaltyLog;
+        private final boolean penaltyDeath;
+        @Nullable
+        private final OnViolationListener listener;
+
+        private Policy(Builder builder) {
+            detectLayout = builder.detectLayout;
+            detectMeasure = builder.detectMeasure;
+            detectRedraw = builder.detectRedraw;
+            detectInvariant = builder.detectInvariant;
+            penaltyLog = builder.penaltyLog;
+            penaltyDeath = builder.penaltyDeath;
+            listener = builder.listener;
+        }
+
+        boolean detects(@NonNull ViolationType type) {
+            switch (type) {
+                case LAYOUT:
+                    return detectLayout;
+                case MEASURE:
+                    return detectMeasure;
+                case INVARIANT:
+                    return detectInvariant;
+                default:
+                    return detectRedraw;
+            }
+        }
+
+        void report(@NonNull Violation violation) {
+            if (penaltyLog) {
+                Log.w(TAG, violation.getMessage(), violation);
+            }
+            if (listener != null) {
+                listener.onViolation(violation);
+            }
+            if (penaltyDeath) {
+                throw violation;
+            }
+        }
+
+        public static final class Builder {
+            private boolean detectLayout;
+            private boolean detectMeasure;
+            private boolean detectRedraw;
+            private boolean detectInvariant;
+            private boolean penaltyLog;
+            private boolean penaltyDeath;
+            @Nullable
+            private OnViolationListener listener;
+
+            /**
+             * Detect layout requests
+             */
+            @NonNull
+            public Builder detectLayouts() {
+                detectLayout = true;
+                return this;
+            }
+
+            /**
+             * Detect measure passes
+             */
+            @NonNull
+            public Builder detectMeasures() {
+                detectMeasure = true;
+                return this;
+            }
+
+            /**
+             * Detect views that need to redraw their content
+             */
+            @NonNull
+            public Builder detectRedraws() {
+                detectRedraw = true;
+                return this;
+            }
+
+            /**
+             * Detect inconsistencies between the slide offset, the state and the position of the
+             * panel: the offset must be within [-1, 1], a panel that is not dragging must rest
+             * at the offset of its state and no snap may run, and the panel must be at the
+             * position of its slide offset.
+             */
+            @NonNull
+            public Builder detectInvariantViolations() {
+                detectInvariant = true;
+                return this;
+            }
+
+            /**
+             * Detect everything
+             */
+            @NonNull
+            public Builder detectAll() {
+                return detectLayouts().detectMeasures().detectRedraws().detectInvariantViolations();
+            }
+
+            /**
+             * Log violations with their stack trace
+             */
+            @NonNull
+            public Builder penaltyLog() {
+                penaltyLog = true;
+                return this;
+            }
+
+            /**
+             * Throw the violation
+             */
+            @NonNull
+            public Builder penaltyDeath() {
+                penaltyDeath = true;
+                return this;
+            }
+
+            /**
+             * Pass violations to a listener
+             */
+            @NonNull
+            public Builder penaltyListener(@NonNull OnViolationListener listener) {
+                this.listener = listener;
+                return this;
+            }
+
+            @NonNull
+            public Policy build() {
+                return new Policy(this);
+            }
+        }
+    }
+
+    /**
+     * Layout requests are propagated up to the root, so the view that initially requested the
+     * layout is the deepest one on the path of views with a pending layout request.
+     */
+    @Nullable
+    static View findLayoutRequester(@NonNull ViewGroup root) {
+        View requester = null;
+        ViewGroup parent = root;
+        while (parent != null) {
+            View next = null;
+            for (int i = 0, count = parent.getChildCount(); i < count; i++) {
+                View child = parent.getChildAt(i);
+                if (child.isLayoutRequested()) {
+                    next = child;
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            requester = next;
+            parent = next instanceof ViewGroup ? (ViewGroup) next : null;
+        }
+        return requester;
+    }
+}
@@ -0,0 +1,59 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
+
+/**
+ * Names and helpers for the system trace sections of the panel, visible in systrace and Perfetto
+ * captures.
+ * <p>
+ * Synchronous sections are cheap when tracing is off, the platform only checks a cached flag.
+ * Asynchronous gesture slices are only started if tracing was enabled when the gesture began.
+ */
+final class PanelTrace {
+    static final String ON_MEASURE = "SlidingUpPanel:onMeasure";
+    static final String MEASURE_SLIDEABLE_VIEW = "SlidingUpPanel:measureSlideableView";
+    static final String ON_LAYOUT = "SlidingUpPanel:onLayout";
+    static final String DRAW = "SlidingUpPanel:draw";
+    static final String DRAW_CHILD = "SlidingUpPanel:drawChild";
+    static final String DISPATCH_SLIDE = "SlidingUpPanel:dispatchOnPanelSlide";
+    static final String DISPATCH_STATE_CHANGED = "SlidingUpPanel:dispatchOnPanelStateChanged";
+    static final String PROCESS_TOUCH_EVENT = "SlidingUpPanel:processTouchEvent";
+    static final String SNAP_FRAME = "SlidingUpPanel:snapFrame";
+
+    private static final String GESTURE = "SlidingUpPanel:gesture";
+
+    private static int nextGestureCookie = 0;
+
+    private PanelTrace() {
+    }
+
+    static void beginSection(@NonNull String sectionName) {
+        TraceCompat.beginSection(sectionName);
+    }
+
+    static void endSection() {
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Starts an asynchronous slice spanning a whole gesture, from the start of a drag or a
+     * programmatic slide until the panel settles.
+     *
+     * @return The cookie to end the slice with or -1 if tracing is off
+     */
+    static int beginGesture() {
+        if (!TraceCompat.isEnabled()) {
+            return -1;
+        }
+        int cookie = nextGestureCookie++ & Integer.MAX_VALUE;
+        TraceCompat.beginAsyncSection(GESTURE, cookie);
+        return cookie;
+    }
+
+    static void endGesture(int cookie) {
+        if (cookie != -1) {
+            TraceCompat.endAsyncSection(GESTURE, cookie);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.hafas.slidinguppanel;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Tells {@link SlidingUpPanelLayout} whether the scrollable view set with
+ * {@link SlidingUpPanelLayout#setScrollableView(View)} can scroll its content. The layout uses it
+ * to decide whether a drag over that view moves the panel or scrolls the view, for views that do
+ * not support nested scrolling, like {@link android.widget.ListView},
+ * {@link android.widget.ScrollView} or {@link android.webkit.WebView}.
+ * <p>
+ * The default implementation uses {@link View#canScrollVertically(int)}, which works for all
+ * framework views. Override it for views that report their scroll position differently.
+ */
+public class ScrollableViewHelper {
+    /**
+     * @param scrollableView The scrollable view
+     * @param direction      Negative to check scrolling towards the start of the content, which
+     *                       the view does when the finger moves down, positive to check scrolling
+     *                       towards the end
+     * @return True, if the view can scroll in the given direction
+     */
+    public boolean canScrollVertically(@NonNull View scrollableView, int direction) {
+        return scrollableView.canScrollVertically(direction);
+    }
+}
@@ -0,0 +1,603 @@
+package de.hafas.slidinguppanel;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.FloatRange;
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.coordinatorlayout.widget.CoordinatorLayout;
+import androidx.core.view.ViewCompat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelSlideListener;
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+import de.hafas.slidinguppanel.library.R;
+
+/**
+ * Turns a direct child of a {@link CoordinatorLayout} into a sliding panel, without an additional
+ * {@link SlidingUpPanelLayout} in between. The panel supports the same states, anchor point,
+ * parallax, fading and sticky footer and moves with the same touch and nested scrolling handling.
+ * <pre>
+ * &lt;androidx.coordinatorlayout.widget.CoordinatorLayout ...&gt;
+ *     &lt;FrameLayout android:id="@+id/main" ... /&gt;
+ *     &lt;LinearLayout
+ *         android:layout_width="match_parent"
+ *         android:layout_height="match_parent"
+ *         app:layout_behavior="de.hafas.slidinguppanel.SlidingUpPanelBehavior"
+ *         app:hafasPanelHeight="68dp"
+ *         app:hafasParallaxView="@id/main"
+ *         app:hafasFooterView="@id/footer" ... /&gt;
+ *     &lt;FrameLayout android:id="@+id/footer" android:layout_gravity="bottom" ... /&gt;
+ * &lt;/androidx.coordinatorlayout.widget.CoordinatorLayout&gt;
+ * </pre>
+ * The siblings before the panel are covered by the fade color of the CoordinatorLayout scrim.
+ * The footer must be declared after the panel. An automatic panel height, overlay mode and the
+ * shadow are not supported.
+ * <p>
+ * The CoordinatorLayout library is not a dependency of this library, apps using this behavior
+ * already depend on it.
+ *
+ * @param <V> The type of the panel view
+ */
+public class SlidingUpPanelBehavior<V extends View> extends CoordinatorLayout.Behavior<V> {
+    private static final int DEFAULT_PANEL_HEIGHT = 68; // dp;
+    private static final float DEFAULT_ANCHOR_POINT = 1.0f; // In relative %
+    private static final int DEFAULT_FADE_COLOR = 0x99000000;
+    private static final int DEFAULT_MIN_FLING_VELOCITY = 400; // dips per second
+
+    private int panelHeight = -1;
+    private float anchorPoint = DEFAULT_ANCHOR_POINT;
+    private int parallaxOffset;
+    @ColorInt
+    private int fadeColor = DEFAULT_FADE_COLOR;
+    private int minFlingVelocity = DEFAULT_MIN_FLING_VELOCITY;
+    private boolean nestedScrollingEnabled = true;
+    @IdRes
+    private int dragViewId = View.NO_ID;
+    @IdRes
+    private int footerViewId = View.NO_ID;
+    @IdRes
+    private int parallaxViewId = View.NO_ID;
+    @Nullable
+    private Interpolator scrollInterpolator;
+    @NonNull
+    private SnapDurationPolicy snapDurationPolicy = new SnapDurationPolicy.Default();
+
+    @NonNull
+    private PanelState state = PanelState.COLLAPSED;
+    @NonNull
+    private PanelState lastNotDraggingState = PanelState.COLLAPSED;
+    private final List<PanelSlideListener> panelSlideListeners = new CopyOnWriteArrayList<>();
+    private final List<SlidingUpPanelLayout.PanelSettleListener> panelSettleListeners = new CopyOnWriteArrayList<>();
+
+    @Nullable
+    private ViewSlideHelper slideHelper;
+    @Nullable
+    private CoordinatorLayout parent;
+    @Nullable
+    private V panel;
+    @Nullable
+    private View footer;
+    @Nullable
+    private View parallaxView;
+    private int slideRange;
+
+    public SlidingUpPanelBehavior() {
+    }
+
+    public SlidingUpPanelBehavior(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.SlidingUpPanelBehavior_Layout);
+        TypedValue value = new TypedValue();
+        ta.getValue(R.styleable.SlidingUpPanelBehavior_Layout_hafasPanelHeight, value);
+        if (TypedValue.TYPE_DIMENSION == value.type) {
+            panelHeight = ta.getDimensionPixelSize(R.styleable.SlidingUpPanelBehavior_Layout_hafasPanelHeight, -1);
+        } else if (TypedValue.TYPE_INT_DEC == value.type) {
+            throw new IllegalStateException("SlidingUpPanelBehavior does not support an automatic panel height");
+        }
+        anchorPoint = ta.getFloat(R.styleable.SlidingUpPanelBehavior_Layout_hafasAnchorPoint, DEFAULT_ANCHOR_POINT);
+        parallaxOffset = ta.getDimensionPixelSize(R.styleable.SlidingUpPanelBehavior_Layout_hafasParallaxOffset, 0);
+        fadeColor = ta.getColor(R.styleable.SlidingUpPanelBehavior_Layout_hafasFadeColor, DEFAULT_FADE_COLOR);
+        minFlingVelocity = ta.getInt(R.styleable.SlidingUpPanelBehavior_Layout_hafasFlingVelocity, DEFAULT_MIN_FLING_VELOCITY);
+        nestedScrollingEnabled = ta.getBoolean(R.styleable.SlidingUpPanelBehavior_Layout_hafasNestedScrolling, true);
+        state = PanelState.values()[ta.getInt(R.styleable.SlidingUpPanelBehavior_Layout_hafasInitialState, PanelState.COLLAPSED.ordinal())];
+        dragViewId = ta.getResourceId(R.styleable.SlidingUpPanelBehavior_Layout_hafasDragView, View.NO_ID);
+        footerViewId = ta.getResourceId(R.styleable.SlidingUpPanelBehavior_Layout_hafasFooterView, View.NO_ID);
+        parallaxViewId = ta.getResourceId(R.styleable.SlidingUpPanelBehavior_Layout_hafasParallaxView, View.NO_ID);
+        int interpolatorResId = ta.getResourceId(R.styleable.SlidingUpPanelBehavior_Layout_hafasScrollInterpolator, -1);
+        if (interpolatorResId != -1) {
+            if (ta.getBoolean(R.styleable.SlidingUpPanelBehavior_Layout_hafasPrecomputeInterpolator, false)) {
+                scrollInterpolator = LookupTableInterpolator.load(context, interpolatorResId);
+            } else {
+                scrollInterpolator = AnimationUtils.loadInterpolator(context, interpolatorResId);
+            }
+        }
+        ta.recycle();
+        lastNotDraggingState = state;
+    }
+
+    /**
+     * @return The behavior of the given panel
+     * @throws IllegalArgumentException If the view is not a panel in a CoordinatorLayout
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public static <V extends View> SlidingUpPanelBehavior<V> from(@NonNull V view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        if (!(params instanceof CoordinatorLayout.LayoutParams)) {
+            throw new IllegalArgumentException("The view is not a child of CoordinatorLayout");
+        }
+        CoordinatorLayout.Behavior<?> behavior = ((CoordinatorLayout.LayoutParams) params).getBehavior();
+        if (!(behavior instanceof SlidingUpPanelBehavior)) {
+            throw new IllegalArgumentException("The view is not associated with SlidingUpPanelBehavior");
+        }
+        return (SlidingUpPanelBehavior<V>) behavior;
+    }
+
+    public void addPanelSlideListener(@NonNull PanelSlideListener listener) {
+        panelSlideListeners.add(listener);
+    }
+
+    public void removePanelSlideListener(@NonNull PanelSlideListener listener) {
+        panelSlideListeners.remove(listener);
+    }
+
+    /**
+     * @see SlidingUpPanelLayout#addPanelSettleListener(SlidingUpPanelLayout.PanelSettleListener)
+     */
+    public void addPanelSettleListener(@NonNull SlidingUpPanelLayout.PanelSettleListener listener) {
+        panelSettleListeners.add(listener);
+    }
+
+    public void removePanelSettleListener(@NonNull SlidingUpPanelLayout.PanelSettleListener listener) {
+        panelSettleListeners.remove(listener);
+    }
+
+    /**
+     * @return The current state of the panel
+     */
+    @NonNull
+    public PanelState getPanelState() {
+        return state;
+    }
+
+    /**
+     * Moves the panel to the given state, animated if the panel has been laid out already.
+     *
+     * @param state The new state, must not be {@link PanelState#DRAGGING}
+     */
+    public void setPanelState(@NonNull PanelState state) {
+        if (state == PanelState.DRAGGING) {
+            throw new IllegalArgumentException("Panel state cannot be null or DRAGGING.");
+        }
+        if (state == this.state) {
+            return;
+        }
+        if (slideHelper == null || panel == null) {
+            this.state = state;
+            lastNotDraggingState = state;
+        } else {
+            slideHelper.slideTo(getSlideOffsetForState(state));
+        }
+    }
+
+    /**
+     * @return The current slide offset of the panel, from -1 (hidden) over 0 (collapsed) to 1
+     * (expanded)
+     */
+    public float getSlideOffset() {
+        return slideHelper != null ? slideHelper.getSlideOffset() : getSlideOffsetForState(state);
+    }
+
+    /**
+     * @param panelHeight The visible height of the collapsed panel in pixels
+     */
+    public void setPanelHeight(int panelHeight) {
+        this.panelHeight = panelHeight;
+        requestLayout();
+    }
+
+    public int getPanelHeight() {
+        return panelHeight;
+    }
+
+    /**
+     * @param anchorPoint A value between 0 and 1, determining the position of the anchor point
+     *                    starting from the top of the layout.
+     */
+    public void setAnchorPoint(@FloatRange(from = 0, to = 1, fromInclusive = false) float anchorPoint) {
+        if (anchorPoint > 0 && anchorPoint <= 1) {
+            this.anchorPoint = anchorPoint;
+            requestLayout();
+        }
+    }
+
+    public float getAnchorPoint() {
+        return anchorPoint;
+    }
+
+    /**
+     * @param parallaxOffset How far the parallax view moves up while the panel expands in pixels
+     */
+    public void setParallaxOffset(int parallaxOffset) {
+        this.parallaxOffset = parallaxOffset;
+        applyParallax();
+    }
+
+    /**
+     * @param color The color the siblings before the panel are faded to when the panel expands,
+     *              0 to disable fading
+     */
+    public void setCoveredFadeColor(@ColorInt int color) {
+        fadeColor = color;
+        if (parent != null) {
+            parent.invalidate();
+        }
+    }
+
+    /**
+     * @param velocity Minimum velocity in pixels per second that is detected as a fling
+     */
+    public void setMinFlingVelocity(int velocity) {
+        minFlingVelocity = velocity;
+    }
+
+    public void setNestedScrollingEnabled(boolean enabled) {
+        nestedScrollingEnabled = enabled;
+        if (slideHelper != null) {
+            slideHelper.setNestedScrollingEnabled(enabled);
+        }
+    }
+
+    /**
+     * @see SlidingUpPanelLayout#setSnapDurationPolicy(SnapDurationPolicy)
+     */
+    public void setSnapDurationPolicy(@Nullable SnapDurationPolicy policy) {
+        snapDurationPolicy = policy != null ? policy : new SnapDurationPolicy.Default();
+        if (slideHelper != null) {
+            slideHelper.setSnapDurationPolicy(snapDurationPolicy);
+        }
+    }
+
+    /**
+     * @param dragViewId The id of the view within the panel that can be used to drag it, or
+     *                   {@link View#NO_ID} to drag the whole panel
+     */
+    public void setDragViewId(@IdRes int dragViewId) {
+        this.dragViewId = dragViewId;
+    }
+
+    /**
+     * @param footerViewId The id of a sibling of the panel that stays at the bottom while the
+     *                     panel is visible and leaves with a hiding panel
+     */
+    public void setFooterViewId(@IdRes int footerViewId) {
+        this.footerViewId = footerViewId;
+        requestLayout();
+    }
+
+    /**
+     * @param parallaxViewId The id of the sibling of the panel that is moved by the parallax offset
+     */
+    public void setParallaxViewId(@IdRes int parallaxViewId) {
+        this.parallaxViewId = parallaxViewId;
+        requestLayout();
+    }
+
+    private void requestLayout() {
+        if (panel != null) {
+            panel.requestLayout();
+        }
+    }
+
+    @Override
+    public boolean layoutDependsOn(@NonNull CoordinatorLayout parent, @NonNull V child, @NonNull View dependency) {
+        // the footer and the parallax view must be laid out before the panel positions them
+        int id = dependency.getId();
+        return id != View.NO_ID && (id == footerViewId || id == parallaxViewId);
+    }
+
+    @Override
+    public boolean onLayoutChild(@NonNull CoordinatorLayout parent, @NonNull V child, int layoutDirection) {
+        PanelTrace.beginSection(PanelTrace.ON_LAYOUT);
+        try {
+            boolean firstLayout = slideHelper == null || this.panel != child;
+            this.parent = parent;
+            this.panel = child;
+            footer = footerViewId != View.NO_ID ? parent.findViewById(footerViewId) : null;
+            parallaxView = parallaxViewId != View.NO_ID ? parent.findViewById(parallaxViewId) : null;
+            if (panelHeight == -1) {
+                panelHeight = (int) (DEFAULT_PANEL_HEIGHT * parent.getResources().getDisplayMetrics().density + 0.5f);
+            }
+            if (slideHelper == null) {
+                slideHelper = new ViewSlideHelper(parent.getContext(), new SlideCallback(), scrollInterpolator);
+                slideHelper.setNestedScrollingEnabled(nestedScrollingEnabled);
+                slideHelper.setSnapDurationPolicy(snapDurationPolicy);
+            }
+
+            parent.onLayoutChild(child, layoutDirection);
+            slideRange = child.getHeight() - panelHeight;
+
+            if (firstLayout) {
+                slideHelper.setSlideOffset(getSlideOffsetForState(state));
+            } else {
+                // keeps the slide offset of a drag or snap in progress
+                positionViews(slideHelper.getSlideOffset());
+            }
+            return true;
+        } finally {
+            PanelTrace.endSection();
+        }
+    }
+
+    private void positionViews(float slideOffset) {
+        if (panel == null) {
+            return;
+        }
+        panel.offsetTopAndBottom(computePanelTop(slideOffset) - panel.getTop());
+        if (footer != null) {
+            int footerTop = slideOffset >= 0
+                    ? getBottom() - footer.getHeight()
+                    : computePanelTop(slideOffset) + panelHeight;
+            footer.offsetTopAndBottom(footerTop - footer.getTop());
+        }
+        applyParallax();
+    }
+
+    private void applyParallax() {
+        if (parallaxView != null && parallaxOffset > 0 && slideHelper != null) {
+            parallaxView.setTranslationY(PanelGeometry.computeParallaxOffset(parallaxOffset, slideHelper.getSlideOffset()));
+        }
+    }
+
+    private int getBottom() {
+        return parent != null ? parent.getHeight() - parent.getPaddingBottom() : 0;
+    }
+
+    private int getCollapsedHeight() {
+        return panelHeight + (footer != null && footer.getVisibility() != View.GONE ? footer.getHeight() : 0);
+    }
+
+    private int computePanelTop(float slideOffset) {
+        return PanelGeometry.computePanelTop(slideOffset, getBottom(), getCollapsedHeight(), slideRange);
+    }
+
+    private float getSlideOffsetForState(@NonNull PanelState state) {
+        switch (state) {
+            case EXPANDED:
+                return 1.0f;
+            case ANCHORED:
+                return slideRange > 0 ? anchorPoint : 0.f;
+            case HIDDEN:
+                return -1.0f;
+            default:
+                return 0.f;
+        }
+    }
+
+    private void setPanelStateInternal(@NonNull PanelState newState) {
+        if (state == newState) {
+            return;
+        }
+        PanelState oldState = state;
+        state = newState;
+        if (panel != null) {
+            for (PanelSlideListener listener : panelSlideListeners) {
+                listener.onPanelStateChanged(panel, oldState, newState);
+            }
+        }
+    }
+
+    @ColorInt
+    @Override
+    public int getScrimColor(@NonNull CoordinatorLayout parent, @NonNull V child) {
+        // CoordinatorLayout replaces the alpha of the color with the scrim opacity
+        return fadeColor | 0xff000000;
+    }
+
+    @Override
+    public float getScrimOpacity(@NonNull CoordinatorLayout parent, @NonNull V child) {
+        return Color.alpha(fadeColor) / 255f * Math.max(0f, getSlideOffset());
+    }
+
+    @Override
+    public boolean blocksInteractionBelow(@NonNull CoordinatorLayout parent, @NonNull V child) {
+        // like SlidingUpPanelLayout, the faded content stays interactive
+        return false;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(@NonNull CoordinatorLayout parent, @NonNull V child, @NonNull MotionEvent ev) {
+        return slideHelper != null && child.isEnabled() && slideHelper.onInterceptTouchEvent(ev);
+    }
+
+    @Override
+    public boolean onTouchEvent(@NonNull CoordinatorLayout parent, @NonNull V child, @NonNull MotionEvent ev) {
+        return slideHelper != null && child.isEnabled() && slideHelper.onTouchEvent(ev);
+    }
+
+    @Override
+    public boolean onStartNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull V child, @NonNull View directTargetChild,
+                                       @NonNull View target, int axes, int type) {
+        // only scrolling content of the panel moves the panel
+        return slideHelper != null && directTargetChild == child
+                && slideHelper.onStartNestedScroll(directTargetChild, target, axes, type);
+    }
+
+    @Override
+    public void onNestedScrollAccepted(@NonNull CoordinatorLayout coordinatorLayout, @NonNull V child, @NonNull View directTargetChild,
+                                       @NonNull View target, int axes, int type) {
+        if (slideHelper != null) {
+            slideHelper.onNestedScrollAccepted(directTargetChild, target, axes, type);
+        }
+    }
+
+    @Override
+    public void onNestedPreScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull V child, @NonNull View target,
+                                  int dx, int dy, @NonNull int[] consumed, int type) {
+        if (slideHelper != null) {
+            slideHelper.onNestedPreScroll(target, dx, dy, consumed, type);
+        }
+    }
+
+    @Override
+    public void onNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull V child, @NonNull View target,
+                               int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed, int type, @NonNull int[] consumed) {
+        if (slideHelper != null) {
+            slideHelper.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type, consumed);
+        }
+    }
+
+    @Override
+    public void onStopNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull V child, @NonNull View target, int type) {
+        if (slideHelper != null) {
+            slideHelper.onStopNestedScroll(target, type);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Parcelable onSaveInstanceState(@NonNull CoordinatorLayout parent, @NonNull V child) {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable("superState", super.onSaveInstanceState(parent, child));
+        bundle.putSerializable(SlidingUpPanelLayout.SLIDING_STATE, state != PanelState.DRAGGING ? state : lastNotDraggingState);
+        return bundle;
+    }
+
+    @Override
+    public void onRestoreInstanceState(@NonNull CoordinatorLayout parent, @NonNull V child, @NonNull Parcelable state) {
+        if (state instanceof Bundle) {
+            Bundle bundle = (Bundle) state;
+            PanelState deserializedState = (PanelState) bundle.getSerializable(SlidingUpPanelLayout.SLIDING_STATE);
+            if (deserializedState != null) {
+                this.state = deserializedState;
+                lastNotDraggingState = deserializedState;
+            }
+            Parcelable superState = bundle.getParcelable("superState");
+            if (superState != null) {
+                super.onRestoreInstanceState(parent, child, superState);
+            }
+        }
+    }
+
+    private class SlideCallback implements ViewSlideHelper.Callback {
+        private final int[] tmpLocation = new int[2];
+
+        @Override
+        public View getSlideableView() {
+            return panel;
+        }
+
+        @Override
+        public int getViewVerticalDragRange() {
+            return slideRange;
+        }
+
+        @Override
+        public boolean isFling(float velocity) {
+            return Math.abs(velocity) > minFlingVelocity;
+        }
+
+        @Override
+        public boolean isDraggable(float screenX, float screenY) {
+            if (panel == null) {
+                return false;
+            }
+            if (footer != null && isViewUnder(footer, screenX, screenY)) {
+                return false;
+            }
+            View dragView = dragViewId != View.NO_ID ? panel.findViewById(dragViewId) : null;
+            return isViewUnder(dragView != null ? dragView : panel, screenX, screenY);
+        }
+
+        @Override
+        public boolean isScrollableViewDrag(float screenX, float screenY, float deltaY) {
+            // scrollable children of a behavior panel are expected to support nested scrolling
+            return false;
+        }
+
+        private boolean isViewUnder(View view, float screenX, float screenY) {
+            view.getLocationOnScreen(tmpLocation);
+            return screenX >= tmpLocation[0] && screenX < tmpLocation[0] + view.getWidth() &&
+                    screenY >= tmpLocation[1] && screenY < tmpLocation[1] + view.getHeight();
+        }
+
+        @Override
+        public void onDragStarted(@NonNull PanelStateEvent.Source source) {
+            if (state != PanelState.DRAGGING) {
+                lastNotDraggingState = state;
+            }
+            setPanelStateInternal(PanelState.DRAGGING);
+        }
+
+        @Override
+        public int computePanelTopPosition(float slideOffset) {
+            return computePanelTop(slideOffset);
+        }
+
+        @Override
+        public float computeSlideOffset(int panelTop) {
+            return PanelGeometry.computeSlideOffset(panelTop, getBottom(), getCollapsedHeight(), slideRange);
+        }
+
+        @Override
+        public void onTouchEventConsumed(long eventTime) {
+        }
+
+        @Override
+        public void onViewPositionChanged(float slideOffset) {
+            positionViews(slideOffset);
+            if (panel != null) {
+                for (PanelSlideListener listener : panelSlideListeners) {
+                    listener.onPanelSlide(panel, slideOffset);
+                }
+            }
+            if (parent != null && fadeColor != 0) {
+                // the scrim is drawn by the parent
+                ViewCompat.postInvalidateOnAnimation(parent);
+            }
+        }
+
+        @Override
+        public float calculateSnapPoint(float slideOffset, boolean flingUp, boolean flingDown) {
+            return PanelGeometry.calculateSnapPoint(slideOffset, anchorPoint, flingUp, flingDown);
+        }
+
+        @Override
+        public void onSnapStarted(float targetOffset, long durationMs) {
+            PanelState targetState = PanelGeometry.getSettledState(targetOffset);
+            for (SlidingUpPanelLayout.PanelSettleListener listener : panelSettleListeners) {
+                listener.onPanelWillSettle(targetState, targetOffset, durationMs);
+            }
+        }
+
+        @Override
+        public void onTranslationSnapStarted(float targetOffset, long durationMs, @NonNull Interpolator interpolator) {
+            // the behavior always moves the panel by its position
+        }
+
+        @Override
+        public void onTranslationSnapEnded() {
+        }
+
+        @Override
+        public void onViewSettled(float slideOffset) {
+            setPanelStateInternal(PanelGeometry.getSettledState(slideOffset));
+        }
+    }
+}
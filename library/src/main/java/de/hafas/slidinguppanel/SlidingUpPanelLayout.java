@@ -7,14 +7,19 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.Region;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
@@ -23,12 +28,18 @@ import androidx.annotation.IdRes;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.view.GravityCompat;
 import androidx.core.view.NestedScrollingParent3;
 import androidx.core.view.NestedScrollingParentHelper;
 import androidx.core.view.ViewCompat;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import de.hafas.slidinguppanel.library.R;
 
@@ -77,6 +88,7 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      * Tag for the sliding state stored inside the bundle
      */
     public static final String SLIDING_STATE = "sliding_state";
+    private static final String STACKED_SLIDING_STATES = "stacked_sliding_states";
 
     /**
      * Minimum velocity that will be detected as a fling
@@ -98,6 +110,11 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     public static final int PANEL_HEIGHT_AUTO = -2;
 
+    /**
+     * Marks that no panel height request is deferred
+     */
+    private static final int NO_PENDING_PANEL_HEIGHT = Integer.MIN_VALUE;
+
     /**
      * The paint used to dim the main layout when sliding
      */
@@ -146,6 +163,16 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     @IdRes
     private int mDragViewResId = -1;
 
+    /**
+     * A scrollable child of the panel that does not support nested scrolling, and the helper
+     * that tells whether it can scroll
+     */
+    @Nullable
+    private View mScrollableView;
+    private int mScrollableViewResId = -1;
+    @NonNull
+    private ScrollableViewHelper mScrollableViewHelper = new ScrollableViewHelper();
+
     /**
      * The child view that can slide, if any.
      */
@@ -161,6 +188,79 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     private View mStickyFooter;
 
+    /**
+     * The child with the role {@link ChildRole#HEADER}, if any.
+     */
+    @Nullable
+    private View mLayoutHeader;
+
+    /**
+     * Children with the role {@link ChildRole#FLOATING_ABOVE_PANEL}
+     */
+    private final List<View> mFloatingViews = new ArrayList<>();
+
+    /**
+     * Children with the role {@link ChildRole#OVERLAY}
+     */
+    private final List<View> mOverlayViews = new ArrayList<>();
+
+    /**
+     * Children with the role {@link ChildRole#STACKED_PANEL}, in child order
+     */
+    private final List<StackedPanel> mStackedPanels = new ArrayList<>();
+
+    /**
+     * The stacked panel that received the current touch gesture, or null if the gesture belongs
+     * to the main panel.
+     */
+    @Nullable
+    private StackedPanel mTouchStackedPanel;
+
+    /**
+     * Role of a direct child of the layout, set by {@link LayoutParams#role} or the
+     * {@code layout_hafasPanelRole} attribute.
+     */
+    public enum ChildRole {
+        /**
+         * The role is derived from the child position: the first child without a role becomes the
+         * main view, the second the panel and the third the footer.
+         */
+        AUTO,
+        /**
+         * The main content below the panel
+         */
+        MAIN,
+        /**
+         * The slideable panel
+         */
+        PANEL,
+        /**
+         * The sticky footer below the panel
+         */
+        FOOTER,
+        /**
+         * A view at the top of the layout. The main view is placed below it and the panel does not
+         * expand over it.
+         */
+        HEADER,
+        /**
+         * A view that is placed directly above the top edge of the panel and moves with it, like a
+         * floating action button. Its bottom margin is the distance to the panel and its
+         * horizontal {@code layout_gravity} is respected.
+         */
+        FLOATING_ABOVE_PANEL,
+        /**
+         * A view that covers the layout and is not affected by the panel. Its
+         * {@code layout_gravity} is respected horizontally.
+         */
+        OVERLAY,
+        /**
+         * An additional panel that slides independently of the main panel and of other stacked
+         * panels, see {@link StackedPanel}. Any number of children may have this role.
+         */
+        STACKED_PANEL
+    }
+
     /**
      * The header view. (View which decides how height the panelHeight is)
      */
@@ -189,6 +289,24 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     @NonNull
     private PanelState mSlideState = DEFAULT_SLIDE_STATE;
 
+    /**
+     * How the slideable view is moved.
+     */
+    public enum SlideMode {
+        /**
+         * The panel is moved by changing its layout position. Every animation frame is computed on
+         * the UI thread and all listeners are notified on every frame.
+         */
+        OFFSET,
+        /**
+         * The panel is moved by changing its translationY. Snap animations are run by a
+         * {@link android.view.ViewPropertyAnimator} with a hardware layer, so they stay smooth
+         * while the UI thread is busy. The slide offset, listeners, parallax, fading and the
+         * shadow are only updated at the end of a snap animation.
+         */
+        TRANSLATION
+    }
+
     /**
      * If the current slide state is DRAGGING, this will store the last non dragging state
      */
@@ -215,7 +333,28 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     private boolean mTouchingFade;
 
+    /**
+     * Snap interpolator and snap duration policy of the main panel, which are shared with the
+     * stacked panels.
+     */
+    @Nullable
+    private Interpolator mSnapInterpolator;
+    @NonNull
+    private SnapDurationPolicy mSnapDurationPolicy = new SnapDurationPolicy.Default();
+    /**
+     * Runs the snap animations of all panels
+     */
+    private final SnapAnimationDriver mSnapAnimationDriver = new SnapAnimationDriver(this);
+
     private final List<PanelSlideListener> mPanelSlideListeners = new CopyOnWriteArrayList<>();
+    private final List<PanelStateObserverDispatcher> mPanelStateObservers = new CopyOnWriteArrayList<>();
+    private final List<PanelSettleListener> mPanelSettleListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * What caused the current or most recent movement of the panel.
+     */
+    @NonNull
+    private PanelStateEvent.Source mGestureSource = PanelStateEvent.Source.PROGRAMMATIC;
     private View.OnClickListener mFadeOnClickListener;
 
     private ViewSlideHelper mViewSlideHelper;
@@ -228,8 +367,129 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     private boolean mFirstLayout = true;
 
+    /**
+     * Set if the height of the layout changed after the first layout. The next layout keeps the
+     * slide offset and adapts a running snap to the new geometry.
+     */
+    private boolean mSizeChanged = false;
+
     private final Rect mTmpRect = new Rect();
 
+    /**
+     * Cached clip of the main view and the panel top it was computed for. Without overlay, the
+     * main view is clipped to the area above the panel, with overlay the area of an opaque panel
+     * is clipped out.
+     */
+    private final Rect mMainViewClip = new Rect();
+    private int mMainViewClipPanelTop = Integer.MIN_VALUE;
+
+    @Nullable
+    private PanelStrictMode.Policy mStrictModePolicy;
+
+    /**
+     * Collected metrics, null while metrics are disabled
+     */
+    @Nullable
+    private PanelMetrics mMetrics;
+    private boolean mMetricsEnabled;
+    @Nullable
+    private PanelDebugOverlay mDebugOverlay;
+
+    @Nullable
+    private PanelKeyframes mKeyframes;
+    /**
+     * Resolved target views of {@link #mKeyframes}
+     */
+    @Nullable
+    private View[] mKeyframeTargets;
+    /**
+     * Set while the keyframes are applied, the invalidations they cause are not reported by the
+     * strict mode
+     */
+    private boolean mApplyingKeyframes = false;
+    /**
+     * True while the children are positioned in {@link #onLayout(boolean, int, int, int, int)},
+     * the invariants are checked once all of them are in place
+     */
+    private boolean mInLayout = false;
+
+    /**
+     * Tracks the input method while IME tracking is enabled
+     */
+    @Nullable
+    private ImeInsetTracker mImeInsetTracker;
+    /**
+     * Height in pixels the panel and the footer are lifted by to stay above the input method
+     */
+    private int mImeInset;
+    /**
+     * Set if the IME inset changed since the last layout pass requested for it
+     */
+    private boolean mImeLayoutPending = false;
+
+    /**
+     * Cookie of the asynchronous trace slice of the current gesture or -1
+     */
+    private int mGestureTraceCookie = -1;
+
+    /**
+     * Time a single onPanelSlide call may take before it is reported, 0 = listeners are not timed
+     */
+    private long mListenerBudgetNanos = 0;
+    /**
+     * Number of calls exceeding the budget after which a listener is demoted, 0 = never
+     */
+    private int mListenerDemoteThreshold = 0;
+    @Nullable
+    private ListenerBudgetCallback mListenerBudgetCallback;
+    private final List<PanelMetrics.OnGestureMetricsListener> mGestureMetricsListeners = new CopyOnWriteArrayList<>();
+
+    private final Map<PanelSlideListener, PanelListenerStats> mListenerStats = new IdentityHashMap<>();
+    private boolean mCoalescedSlidePending = false;
+    private final Runnable mCoalescedSlideDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatchCoalescedSlide();
+        }
+    };
+
+    /**
+     * Depth of the listener dispatches on the stack. State and height requests made while it is
+     * positive are deferred until the outermost dispatch completed.
+     */
+    private int mDispatchDepth = 0;
+    /**
+     * Latest deferred state request, null if there is none
+     */
+    @Nullable
+    private PanelState mPendingPanelState;
+    /**
+     * Latest deferred panel height request, {@link #NO_PENDING_PANEL_HEIGHT} if there is none
+     */
+    private int mPendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
+    /**
+     * Editors applied during a listener dispatch, in the order of their apply calls
+     */
+    private final List<Editor> mPendingEdits = new ArrayList<>();
+    private boolean mPendingRequestsPosted = false;
+    private final Runnable mApplyPendingRequests = new Runnable() {
+        @Override
+        public void run() {
+            applyPendingRequests();
+        }
+    };
+
+    /**
+     * State the panel animates to after the layout requested by an animated {@link Editor},
+     * null if there is none
+     */
+    @Nullable
+    private PanelState mEditTargetState;
+    /**
+     * Panel top before the changes of an animated {@link Editor}, the animation starts there
+     */
+    private int mEditStartTop;
+
     /**
      * Listener for monitoring events about sliding panes.
      */
@@ -253,6 +513,40 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         void onPanelStateChanged(@NonNull View panel, @NonNull PanelState previousState, @NonNull PanelState newState);
     }
 
+    /**
+     * Callback for listeners exceeding their time budget.
+     *
+     * @see #setListenerBudget(long, int, ListenerBudgetCallback)
+     */
+    public interface ListenerBudgetCallback {
+        /**
+         * Called after a call of {@link PanelSlideListener#onPanelSlide(View, float)} took longer
+         * than the budget.
+         *
+         * @param stats The statistics of the listener, including the offending call
+         */
+        @MainThread
+        void onListenerOverBudget(@NonNull PanelListenerStats stats);
+    }
+
+    /**
+     * Listener for the destination of the panel while it is still moving, e.g. to start loading
+     * the content of the expanded panel before the panel arrives.
+     */
+    public interface PanelSettleListener {
+        /**
+         * Called when the panel starts to snap after a drag or starts to slide to a new state.
+         * It is called again if the panel is redirected to another target. A touch that catches
+         * the moving panel starts a new drag, after which the panel settles at a new target.
+         *
+         * @param targetState        The state the panel will have when it settles
+         * @param targetOffset       The slide offset the panel will settle at
+         * @param expectedDurationMs The expected time until the panel settles in milliseconds
+         */
+        @MainThread
+        void onPanelWillSettle(@NonNull PanelState targetState, float targetOffset, long expectedDurationMs);
+    }
+
     /**
      * No-op stubs for {@link PanelSlideListener}. If you only want to implement a subset
      * of the listener methods you can extend this instead of implement the full interface.
@@ -285,6 +579,10 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
         Interpolator scrollerInterpolator = null;
         boolean nestedScrollingEnabled = true;
+        SlideMode slideMode = SlideMode.OFFSET;
+        boolean debugOverlay = false;
+        int keyframesResId = -1;
+        boolean imeTracking = false;
         if (attrs != null) {
             TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.SlidingUpPanelLayout);
 
@@ -302,6 +600,7 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
                 mCoveredFadeColor = ta.getColor(R.styleable.SlidingUpPanelLayout_hafasFadeColor, DEFAULT_FADE_COLOR);
 
                 mDragViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_hafasDragView, -1);
+                mScrollableViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_hafasScrollableView, -1);
                 nestedScrollingEnabled = ta.getBoolean(R.styleable.SlidingUpPanelLayout_hafasNestedScrolling, true);
 
                 mOverlayContent = ta.getBoolean(R.styleable.SlidingUpPanelLayout_hafasOverlay, DEFAULT_OVERLAY_FLAG);
@@ -313,9 +612,21 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
                 int interpolatorResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_hafasScrollInterpolator, -1);
                 if (interpolatorResId != -1) {
-                    scrollerInterpolator = AnimationUtils.loadInterpolator(context, interpolatorResId);
+                    if (ta.getBoolean(R.styleable.SlidingUpPanelLayout_hafasPrecomputeInterpolator, false)) {
+                        scrollerInterpolator = LookupTableInterpolator.load(context, interpolatorResId);
+                    } else {
+                        scrollerInterpolator = AnimationUtils.loadInterpolator(context, interpolatorResId);
+                    }
                 }
 
+                slideMode = SlideMode.values()[ta.getInt(R.styleable.SlidingUpPanelLayout_hafasSlideMode, SlideMode.OFFSET.ordinal())];
+
+                debugOverlay = ta.getBoolean(R.styleable.SlidingUpPanelLayout_hafasDebugOverlay, false);
+
+                keyframesResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_hafasKeyframes, -1);
+
+                imeTracking = ta.getBoolean(R.styleable.SlidingUpPanelLayout_hafasImeTracking, false);
+
                 mHeaderViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_hafasHeaderView, -1);
                 mPanelAutoHeightEnabled = mPanelHeight == PANEL_HEIGHT_AUTO;
                 if (mHeaderViewResId == -1 && mPanelAutoHeightEnabled)
@@ -343,8 +654,16 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
         setWillNotDraw(false);
 
+        mSnapInterpolator = scrollerInterpolator;
         mViewSlideHelper = new ViewSlideHelper(context, new DragHelperCallback(), scrollerInterpolator);
+        mViewSlideHelper.setAnimationDriver(mSnapAnimationDriver);
         mViewSlideHelper.setNestedScrollingEnabled(nestedScrollingEnabled);
+        mViewSlideHelper.setTranslationMode(slideMode == SlideMode.TRANSLATION);
+        setDebugOverlayEnabled(debugOverlay);
+        if (keyframesResId != -1) {
+            setPanelKeyframes(PanelKeyframes.inflate(context, keyframesResId));
+        }
+        setImeTrackingEnabled(imeTracking);
 
         mIsTouchEnabled = true;
     }
@@ -361,6 +680,9 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         if (mHeaderViewResId != -1) {
             mHeaderView = findViewById(mHeaderViewResId);
         }
+        if (mScrollableViewResId != -1) {
+            mScrollableView = findViewById(mScrollableViewResId);
+        }
     }
 
     /**
@@ -371,7 +693,7 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     public void setCoveredFadeColor(int color) {
         mCoveredFadeColor = color;
-        requestLayout();
+        invalidate();
     }
 
     /**
@@ -418,6 +740,11 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      *            view should define the height of the panel.
      */
     public void setPanelHeight(int val) {
+        if (mDispatchDepth > 0) {
+            mPendingPanelHeight = val;
+            return;
+        }
+        mPendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
 
         if (val != PANEL_HEIGHT_AUTO) {
             mPanelAutoHeightEnabled = false;
@@ -482,8 +809,7 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      * @return The current parallax offset
      */
     public int getCurrentParallaxOffset() {
-        // Clamp slide offset at zero for parallax computation;
-        return -(int) (mParallaxOffset * Math.max(mViewSlideHelper.getSlideOffset(), 0));
+        return PanelGeometry.computeParallaxOffset(mParallaxOffset, mViewSlideHelper.getSlideOffset());
     }
 
     /**
@@ -533,6 +859,101 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     public void removePanelSlideListener(PanelSlideListener listener) {
         synchronized (mPanelSlideListeners) {
             mPanelSlideListeners.remove(listener);
+            mListenerStats.remove(listener);
+        }
+    }
+
+    /**
+     * Sets the policy that determines how long the panel takes to snap after a drag or to slide
+     * to a new state. The default policy scales the duration with the distance and the release
+     * velocity, see {@link SnapDurationPolicy.Default}.
+     *
+     * @param policy The policy or null to use the default policy
+     */
+    public void setSnapDurationPolicy(@Nullable SnapDurationPolicy policy) {
+        mSnapDurationPolicy = policy != null ? policy : new SnapDurationPolicy.Default();
+        mViewSlideHelper.setSnapDurationPolicy(mSnapDurationPolicy);
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).setSnapDurationPolicy(mSnapDurationPolicy);
+        }
+    }
+
+    /**
+     * Adds a listener that is notified where the panel is going to settle while it is still moving.
+     *
+     * @param listener The listener
+     */
+    public void addPanelSettleListener(@NonNull PanelSettleListener listener) {
+        mPanelSettleListeners.add(listener);
+    }
+
+    /**
+     * @see #addPanelSettleListener(PanelSettleListener)
+     */
+    public void removePanelSettleListener(@NonNull PanelSettleListener listener) {
+        mPanelSettleListeners.remove(listener);
+    }
+
+    /**
+     * Times every call of {@link PanelSlideListener#onPanelSlide(View, float)} and reports calls
+     * that take longer than the given budget. Listeners that exceed the budget repeatedly can be
+     * demoted: they then receive only the latest slide offset once per frame instead of every
+     * single update.
+     *
+     * @param budgetMicros The time a single call may take in microseconds or 0 to stop timing
+     * @param demoteAfter  Number of calls over budget after which a listener is demoted or 0 to
+     *                     never demote listeners
+     * @param callback     Callback for calls over budget, may be null to only collect
+     *                     {@link #getListenerStats() statistics}
+     */
+    public void setListenerBudget(long budgetMicros, int demoteAfter, @Nullable ListenerBudgetCallback callback) {
+        synchronized (mPanelSlideListeners) {
+            mListenerBudgetNanos = budgetMicros * 1000;
+            mListenerDemoteThreshold = demoteAfter;
+            mListenerBudgetCallback = callback;
+            if (budgetMicros <= 0) {
+                mListenerStats.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The statistics of all timed listeners
+     * @see #setListenerBudget(long, int, ListenerBudgetCallback)
+     */
+    @NonNull
+    public List<PanelListenerStats> getListenerStats() {
+        synchronized (mPanelSlideListeners) {
+            return new ArrayList<>(mListenerStats.values());
+        }
+    }
+
+    /**
+     * Adds an observer that is notified about panel state changes on the given executor instead
+     * of the UI thread. Use this for work that must not delay the frame in which the panel settles,
+     * like analytics or prefetching.
+     * <p>
+     * Events are queued per observer in a bounded queue. If an observer cannot keep up, queued
+     * events are merged instead of blocking the UI thread.
+     *
+     * @param executor The executor the observer is invoked on
+     * @param observer The observer
+     */
+    public void addPanelStateObserver(@NonNull Executor executor, @NonNull PanelStateObserver observer) {
+        mPanelStateObservers.add(new PanelStateObserverDispatcher(executor, observer));
+    }
+
+    /**
+     * Removes an observer added with {@link #addPanelStateObserver(Executor, PanelStateObserver)}.
+     * Events that are already queued for the observer may still be delivered.
+     *
+     * @param observer The observer
+     */
+    public void removePanelStateObserver(@NonNull PanelStateObserver observer) {
+        for (PanelStateObserverDispatcher dispatcher : mPanelStateObservers) {
+            if (dispatcher.getObserver() == observer) {
+                mPanelStateObservers.remove(dispatcher);
+            }
         }
     }
 
@@ -591,6 +1012,40 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         setDragView(findViewById(dragViewResId));
     }
 
+    /**
+     * Sets a scrollable child of the panel that does not support nested scrolling, like a
+     * {@link android.widget.ListView}, {@link android.widget.ScrollView} or
+     * {@link android.webkit.WebView}. A drag over this view is decided once the touch slop is
+     * reached: if the panel is expanded and the view can scroll in the direction of the drag, the
+     * view keeps the gesture, otherwise the panel moves. Children that support nested scrolling
+     * do not need this.
+     *
+     * @param scrollableView The scrollable view or null
+     * @see #setScrollableViewHelper(ScrollableViewHelper)
+     */
+    public void setScrollableView(@Nullable View scrollableView) {
+        mScrollableView = scrollableView;
+    }
+
+    /**
+     * @see #setScrollableView(View)
+     */
+    @Nullable
+    public View getScrollableView() {
+        return mScrollableView;
+    }
+
+    /**
+     * Sets the helper that tells whether the view set with {@link #setScrollableView(View)} can
+     * scroll. The default helper works for all views that implement
+     * {@link View#canScrollVertically(int)}.
+     *
+     * @param helper The helper
+     */
+    public void setScrollableViewHelper(@NonNull ScrollableViewHelper helper) {
+        mScrollableViewHelper = helper;
+    }
+
     /**
      * @see #setNestedScrollingEnabled(boolean)
      */
@@ -606,80 +1061,494 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      */
     public void setNestedScrollingEnabled(boolean nestedScrollingEnabled) {
         mViewSlideHelper.setNestedScrollingEnabled(nestedScrollingEnabled);
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).setNestedScrollingEnabled(nestedScrollingEnabled);
+        }
     }
 
     /**
-     * Set an anchor point where the panel can stop during sliding
-     *
-     * @param anchorPoint A value between 0 and 1, determining the position of the anchor point
-     *                    starting from the top of the layout.
+     * @see #setSlideMode(SlideMode)
      */
-    public void setAnchorPoint(float anchorPoint) {
-        if (anchorPoint > 0 && anchorPoint <= 1) {
-            mAnchorPoint = anchorPoint;
-            mFirstLayout = true;
-            requestLayout();
-        }
+    @NonNull
+    public SlideMode getSlideMode() {
+        return mViewSlideHelper.isTranslationMode() ? SlideMode.TRANSLATION : SlideMode.OFFSET;
     }
 
     /**
-     * Gets the currently set anchor point
+     * Set how the panel is moved. A running snap animation is stopped at its current position.
      *
-     * @return the currently set anchor point
+     * @param slideMode The new slide mode, {@link SlideMode#OFFSET} by default
      */
-    public float getAnchorPoint() {
-        return mAnchorPoint;
+    public void setSlideMode(@NonNull SlideMode slideMode) {
+        mViewSlideHelper.setTranslationMode(slideMode == SlideMode.TRANSLATION);
+        invalidate();
     }
 
     /**
-     * Sets whether or not the panel overlays the content
+     * Sets a policy to detect layout requests, measure passes and redraws within this layout while
+     * the panel is dragged or snaps. Intended for debug builds only.
      *
-     * @param overlayed
+     * @param policy The policy or null to disable the detection
      */
-    public void setOverlayed(boolean overlayed) {
-        mOverlayContent = overlayed;
+    public void setStrictModePolicy(@Nullable PanelStrictMode.Policy policy) {
+        mStrictModePolicy = policy;
     }
 
     /**
-     * Check if the panel is set as an overlay.
+     * @see #setStrictModePolicy(PanelStrictMode.Policy)
      */
-    public boolean isOverlayed() {
-        return mOverlayContent;
+    @Nullable
+    public PanelStrictMode.Policy getStrictModePolicy() {
+        return mStrictModePolicy;
     }
 
     /**
-     * Sets whether or not the main content is clipped to the top of the panel
-     *
-     * @param clip
+     * Reports a strict mode violation if the panel is moving between collapsed, anchored and
+     * expanded and the policy detects the given type.
      */
-    public void setClipPanel(boolean clip) {
-        mClipPanel = clip;
+    private void checkStrictMode(@NonNull PanelStrictMode.ViolationType type, @Nullable View view) {
+        final PanelStrictMode.Policy policy = mStrictModePolicy;
+        if (policy == null || !policy.detects(type) || !isAnyPanelMovingBetweenRestingStates()) {
+            return;
+        }
+        policy.report(new PanelStrictMode.Violation(type, view));
+    }
+
+    private boolean isAnyPanelMovingBetweenRestingStates() {
+        if (mSlideState == PanelState.DRAGGING
+                && mLastNotDraggingSlideState != PanelState.HIDDEN
+                && mViewSlideHelper.getSlideOffset() >= 0) {
+            return true;
+        }
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            if (mStackedPanels.get(i).isMovingBetweenRestingStates()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Check whether or not the main content is clipped to the top of the panel
+     * Checks the consistency of the slide offset, the state and the position of the main panel
+     * and of all stacked panels, which must hold whenever the layout is not in the middle of an
+     * update.
+     *
+     * @return The violated invariant or null if the panels are consistent or were not laid out yet
+     * @see PanelStrictMode.Policy.Builder#detectInvariantViolations()
      */
-    public boolean isClipPanel() {
-        return mClipPanel;
+    @VisibleForTesting
+    @Nullable
+    public PanelStrictMode.Violation findInvariantViolation() {
+        PanelStrictMode.Violation violation = findMainPanelInvariantViolation();
+        for (int i = 0, count = mStackedPanels.size(); violation == null && i < count; i++) {
+            violation = mStackedPanels.get(i).findInvariantViolation();
+        }
+        return violation;
     }
 
-
-    void dispatchOnPanelSlide(View panel, float newSlideOffset) {
-        synchronized (mPanelSlideListeners) {
-            for (PanelSlideListener l : mPanelSlideListeners) {
-                l.onPanelSlide(panel, newSlideOffset);
+    @Nullable
+    private PanelStrictMode.Violation findMainPanelInvariantViolation() {
+        if (mFirstLayout || mSlideableView == null) {
+            return null;
+        }
+        final float slideOffset = mViewSlideHelper.getSlideOffset();
+        if (!(slideOffset >= -1f && slideOffset <= 1f)) {
+            return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                    "slide offset " + slideOffset + " out of range");
+        }
+        final float snapTarget = mViewSlideHelper.getSnapTarget();
+        if (mSlideState != PanelState.DRAGGING) {
+            if (!Float.isNaN(snapTarget)) {
+                return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                        "snap to " + snapTarget + " running in state " + mSlideState);
+            }
+            if (!isFloatEqual(slideOffset, getSlideOffsetForState(mSlideState))) {
+                return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                        "slide offset " + slideOffset + " does not match state " + mSlideState);
             }
         }
+        if (!mViewSlideHelper.isTranslationSnapRunning()) {
+            final int expectedTop = computePanelTopPosition(slideOffset);
+            // the translation of the panel is rounded
+            if (Math.abs(getPanelTop() - expectedTop) > 1) {
+                return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                        "panel top " + getPanelTop() + " does not match " + expectedTop + " of slide offset " + slideOffset);
+            }
+        }
+        return null;
+    }
+
+    void checkInvariants() {
+        final PanelStrictMode.Policy policy = mStrictModePolicy;
+        if (policy != null && !mInLayout && policy.detects(PanelStrictMode.ViolationType.INVARIANT)) {
+            PanelStrictMode.Violation violation = findInvariantViolation();
+            if (violation != null) {
+                policy.report(violation);
+            }
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        super.requestLayout();
+        if (mStrictModePolicy != null) {
+            checkStrictMode(PanelStrictMode.ViolationType.LAYOUT, PanelStrictMode.findLayoutRequester(this));
+        }
+    }
+
+    @SuppressLint("NewApi") // only called by the framework on API 26 and above
+    @Override
+    public void onDescendantInvalidated(@NonNull View child, @NonNull View target) {
+        super.onDescendantInvalidated(child, target);
+        // the direct children are only moved by the panel itself, which does not require a redraw,
+        // and the keyframe properties are applied by the panel as well
+        if (mStrictModePolicy != null && target.getParent() != this && !mApplyingKeyframes) {
+            checkStrictMode(PanelStrictMode.ViolationType.REDRAW, target);
+        }
+    }
+
+    /**
+     * Enables or disables the collection of {@link PanelMetrics}. Metrics are always collected
+     * while the debug overlay is enabled.
+     *
+     * @param enabled True to collect metrics
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        mMetricsEnabled = enabled;
+        updateMetrics();
+    }
+
+    /**
+     * @return The collected metrics or null if metrics are disabled
+     * @see #setMetricsEnabled(boolean)
+     */
+    @Nullable
+    public PanelMetrics getPanelMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Adds a listener that receives the {@link PanelMetrics} at the end of every gesture while
+     * metrics are enabled.
+     *
+     * @param listener The listener
+     */
+    public void addOnGestureMetricsListener(@NonNull PanelMetrics.OnGestureMetricsListener listener) {
+        mGestureMetricsListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addOnGestureMetricsListener(PanelMetrics.OnGestureMetricsListener)}.
+     *
+     * @param listener The listener
+     */
+    public void removeOnGestureMetricsListener(@NonNull PanelMetrics.OnGestureMetricsListener listener) {
+        mGestureMetricsListeners.remove(listener);
+    }
+
+    /**
+     * Shows or hides an overlay with live {@link PanelMetrics} on top of this layout. Intended for
+     * debugging only.
+     *
+     * @param enabled True to show the overlay
+     */
+    public void setDebugOverlayEnabled(boolean enabled) {
+        if (enabled == isDebugOverlayEnabled()) {
+            return;
+        }
+        mDebugOverlay = enabled ? new PanelDebugOverlay(getContext()) : null;
+        updateMetrics();
+        invalidate();
+    }
+
+    /**
+     * @see #setDebugOverlayEnabled(boolean)
+     */
+    public boolean isDebugOverlayEnabled() {
+        return mDebugOverlay != null;
+    }
+
+    /**
+     * Sets the keyframes that animate properties of descendant views with the slide offset. They
+     * are applied before the {@link PanelSlideListener}s are called.
+     *
+     * @param keyframes The keyframes or null to stop animating the views. Views keep the values
+     *                  they had when the keyframes are removed.
+     */
+    public void setPanelKeyframes(@Nullable PanelKeyframes keyframes) {
+        mKeyframes = keyframes;
+        mKeyframeTargets = keyframes != null ? new View[keyframes.size()] : null;
+        if (!mFirstLayout) {
+            applyKeyframesForCurrentSlideOffset();
+        }
+    }
+
+    /**
+     * @see #setPanelKeyframes(PanelKeyframes)
+     */
+    @Nullable
+    public PanelKeyframes getPanelKeyframes() {
+        return mKeyframes;
+    }
+
+    /**
+     * Keeps the panel and the footer above the input method. While the input method animates in or
+     * out, the panel follows it frame by frame on API 30+ without a layout pass and without a
+     * change of the slide offset, so no {@link PanelSlideListener} is called. On older versions
+     * the panel moves once the input method is shown or hidden.
+     * <p>
+     * The panel can only follow the input method if the window is not resized for it, e.g. with
+     * {@code WindowCompat.setDecorFitsSystemWindows(window, false)} or
+     * {@code android:windowSoftInputMode="adjustNothing"}. Enabling it replaces an
+     * {@link androidx.core.view.OnApplyWindowInsetsListener} set on this layout.
+     *
+     * @param enabled True to keep the panel above the input method
+     */
+    public void setImeTrackingEnabled(boolean enabled) {
+        if (enabled == isImeTrackingEnabled()) {
+            return;
+        }
+        if (enabled) {
+            mImeInsetTracker = new ImeInsetTracker(this, new ImeInsetTracker.Callback() {
+                @Override
+                public void onImeInsetChanged(int imeInset, boolean animating) {
+                    setImeInset(imeInset, animating);
+                }
+            });
+            mImeInsetTracker.attach();
+        } else {
+            mImeInsetTracker.detach();
+            mImeInsetTracker = null;
+        }
+    }
+
+    /**
+     * @see #setImeTrackingEnabled(boolean)
+     */
+    public boolean isImeTrackingEnabled() {
+        return mImeInsetTracker != null;
+    }
+
+    private void setImeInset(int imeInset, boolean animating) {
+        if (imeInset != mImeInset) {
+            mImeInset = imeInset;
+            if (!mFirstLayout) {
+                repositionForImeInset();
+                mImeLayoutPending = true;
+            }
+        }
+        if (!animating && mImeLayoutPending) {
+            // the main view and everything else that depends on the panel position is only
+            // updated once the input method has settled
+            mImeLayoutPending = false;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Moves the panel, the footer and the floating views to the positions for the current slide
+     * offset and IME inset without a layout pass.
+     */
+    private void repositionForImeInset() {
+        final float slideOffset = mViewSlideHelper.getSlideOffset();
+        final int panelTop = computePanelTopPosition(slideOffset);
+        mSlideableView.offsetTopAndBottom(panelTop - getPanelTop());
+        if (mStickyFooter != null) {
+            mStickyFooter.offsetTopAndBottom(computeFooterTopPosition(slideOffset) - mStickyFooter.getTop());
+        }
+        for (int i = 0, count = mFloatingViews.size(); i < count; i++) {
+            View floatingView = mFloatingViews.get(i);
+            floatingView.offsetTopAndBottom(computeFloatingViewTop(floatingView, panelTop) - floatingView.getTop());
+        }
+        // a translation snap animates towards a position relative to the old layout position
+        mViewSlideHelper.retargetSnap();
+        invalidate();
+    }
+
+    private void updateMetrics() {
+        if (mMetricsEnabled || mDebugOverlay != null) {
+            if (mMetrics == null) {
+                mMetrics = new PanelMetrics();
+            }
+        } else {
+            mMetrics = null;
+        }
+    }
+
+    /**
+     * @return The driver of the snap animations of all panels of this layout. Tests switch it to
+     * manual frames to step through the snaps.
+     */
+    @VisibleForTesting
+    @NonNull
+    SnapAnimationDriver getSnapAnimationDriver() {
+        return mSnapAnimationDriver;
+    }
+
+    /**
+     * Set an anchor point where the panel can stop during sliding
+     *
+     * @param anchorPoint A value between 0 and 1, determining the position of the anchor point
+     *                    starting from the top of the layout.
+     */
+    public void setAnchorPoint(float anchorPoint) {
+        if (anchorPoint > 0 && anchorPoint <= 1) {
+            mAnchorPoint = anchorPoint;
+            mFirstLayout = true;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Gets the currently set anchor point
+     *
+     * @return the currently set anchor point
+     */
+    public float getAnchorPoint() {
+        return mAnchorPoint;
+    }
+
+    /**
+     * Sets whether or not the panel overlays the content
+     *
+     * @param overlayed
+     */
+    public void setOverlayed(boolean overlayed) {
+        mOverlayContent = overlayed;
+        mMainViewClipPanelTop = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Check if the panel is set as an overlay.
+     */
+    public boolean isOverlayed() {
+        return mOverlayContent;
+    }
+
+    /**
+     * Sets whether or not the main content is clipped to the top of the panel
+     *
+     * @param clip
+     */
+    public void setClipPanel(boolean clip) {
+        mClipPanel = clip;
+    }
+
+    /**
+     * Check whether or not the main content is clipped to the top of the panel
+     */
+    public boolean isClipPanel() {
+        return mClipPanel;
+    }
+
+
+    void dispatchOnPanelSlide(View panel, float newSlideOffset) {
+        PanelTrace.beginSection(PanelTrace.DISPATCH_SLIDE);
+        try {
+            final PanelMetrics metrics = mMetrics;
+            final long start = metrics != null ? System.nanoTime() : 0;
+            mDispatchDepth++;
+            try {
+                synchronized (mPanelSlideListeners) {
+                    if (mListenerBudgetNanos > 0) {
+                        dispatchOnPanelSlideWithBudget(panel, newSlideOffset);
+                    } else {
+                        for (PanelSlideListener l : mPanelSlideListeners) {
+                            l.onPanelSlide(panel, newSlideOffset);
+                        }
+                    }
+                }
+            } finally {
+                endDispatch();
+            }
+            if (metrics != null) {
+                metrics.onListenerDispatch(System.nanoTime() - start);
+            }
+        } finally {
+            PanelTrace.endSection();
+        }
     }
 
 
+    private void dispatchOnPanelSlideWithBudget(View panel, float newSlideOffset) {
+        for (PanelSlideListener l : mPanelSlideListeners) {
+            PanelListenerStats stats = mListenerStats.get(l);
+            if (stats == null) {
+                stats = new PanelListenerStats(l.getClass());
+                mListenerStats.put(l, stats);
+            }
+            if (stats.isDemoted()) {
+                if (!mCoalescedSlidePending) {
+                    mCoalescedSlidePending = true;
+                    ViewCompat.postOnAnimation(this, mCoalescedSlideDispatch);
+                }
+                continue;
+            }
+            final long start = System.nanoTime();
+            l.onPanelSlide(panel, newSlideOffset);
+            if (stats.record(System.nanoTime() - start, mListenerBudgetNanos)) {
+                if (mListenerDemoteThreshold > 0 && stats.getOverBudgetCount() >= mListenerDemoteThreshold) {
+                    stats.setDemoted();
+                }
+                if (mListenerBudgetCallback != null) {
+                    mListenerBudgetCallback.onListenerOverBudget(stats);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the latest slide offset to demoted listeners.
+     */
+    private void dispatchCoalescedSlide() {
+        if (!mCoalescedSlidePending) {
+            return;
+        }
+        mCoalescedSlidePending = false;
+        removeCallbacks(mCoalescedSlideDispatch);
+        final float slideOffset = mViewSlideHelper.getSlideOffset();
+        mDispatchDepth++;
+        try {
+            synchronized (mPanelSlideListeners) {
+                for (PanelSlideListener l : mPanelSlideListeners) {
+                    PanelListenerStats stats = mListenerStats.get(l);
+                    if (stats != null && stats.isDemoted()) {
+                        l.onPanelSlide(mSlideableView, slideOffset);
+                    }
+                }
+            }
+        } finally {
+            endDispatch();
+        }
+    }
+
     void dispatchOnPanelStateChanged(View panel, PanelState previousState, PanelState newState) {
-        synchronized (mPanelSlideListeners) {
-            for (PanelSlideListener l : mPanelSlideListeners) {
-                l.onPanelStateChanged(panel, previousState, newState);
+        PanelTrace.beginSection(PanelTrace.DISPATCH_STATE_CHANGED);
+        try {
+            // demoted listeners must see the last slide offset before the state change
+            dispatchCoalescedSlide();
+            // observers must receive this change before any change caused by deferred requests
+            mDispatchDepth++;
+            try {
+                synchronized (mPanelSlideListeners) {
+                    for (PanelSlideListener l : mPanelSlideListeners) {
+                        l.onPanelStateChanged(panel, previousState, newState);
+                    }
+                }
+                if (!mPanelStateObservers.isEmpty()) {
+                    PanelStateEvent event = new PanelStateEvent(previousState, newState,
+                            mViewSlideHelper.getSlideOffset(), SystemClock.uptimeMillis(), mGestureSource);
+                    for (PanelStateObserverDispatcher dispatcher : mPanelStateObservers) {
+                        dispatcher.enqueue(event);
+                    }
+                }
+                sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+            } finally {
+                endDispatch();
             }
+        } finally {
+            PanelTrace.endSection();
         }
-        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
     }
 
     void updateObscuredViewVisibility() {
@@ -697,12 +1566,12 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         if (mSlideableView != null && hasOpaqueBackground(mSlideableView)) {
             left = mSlideableView.getLeft();
             right = mSlideableView.getRight();
-            top = mSlideableView.getTop();
-            bottom = mSlideableView.getBottom();
+            top = getPanelTop();
+            bottom = getPanelBottom();
         } else {
             left = right = top = bottom = 0;
         }
-        View child = getChildAt(0);
+        View child = mMainView;
         final int clampedChildLeft = Math.max(leftBound, child.getLeft());
         final int clampedChildTop = Math.max(topBound, child.getTop());
         final int clampedChildRight = Math.min(rightBound, child.getRight());
@@ -717,12 +1586,13 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         child.setVisibility(vis);
     }
 
-    void setAllChildrenVisible() {
-        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == INVISIBLE) {
-                child.setVisibility(VISIBLE);
-            }
+    /**
+     * Shows the main view again if {@link #updateObscuredViewVisibility()} hid it. The other
+     * children are never hidden by the layout, their visibility is left to the app.
+     */
+    void showObscuredView() {
+        if (mMainView != null && mMainView.getVisibility() == INVISIBLE) {
+            mMainView.setVisibility(VISIBLE);
         }
     }
 
@@ -735,90 +1605,356 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
         mFirstLayout = true;
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).resetLayoutPosition();
+        }
     }
 
     @Override
     protected void onDetachedFromWindow() {
+        // a detached panel must not keep animating or hold on to its animators, it is laid out
+        // in its settled state when it is attached again
+        if (mPendingRequestsPosted) {
+            // the requests are applied to the settled panel
+            applyPendingRequests();
+        }
+        finishPanelMovement();
+        if (mCoalescedSlidePending) {
+            mCoalescedSlidePending = false;
+            removeCallbacks(mCoalescedSlideDispatch);
+        }
         super.onDetachedFromWindow();
         mFirstLayout = true;
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).resetLayoutPosition();
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility != VISIBLE) {
+            // nobody sees the animation, there is no need to spend frames on it
+            finishPanelMovement();
+        }
+    }
+
+    private void finishPanelMovement() {
+        if (mViewSlideHelper != null && mSlideableView != null) {
+            mViewSlideHelper.finishMovement(mSlideState == PanelState.DRAGGING);
+        }
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).finishMovement();
+        }
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
-        final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
-        final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
-        final int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+        PanelTrace.beginSection(PanelTrace.ON_MEASURE);
+        try {
+            final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+            final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+            final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+            final int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+
+            if (widthMode != MeasureSpec.EXACTLY && widthMode != MeasureSpec.AT_MOST) {
+                throw new IllegalStateException("Width must have an exact value or MATCH_PARENT");
+            } else if (heightMode != MeasureSpec.EXACTLY && heightMode != MeasureSpec.AT_MOST) {
+                throw new IllegalStateException("Height must have an exact value or MATCH_PARENT");
+            }
+
+            if (mStrictModePolicy != null) {
+                checkStrictMode(PanelStrictMode.ViolationType.MEASURE, PanelStrictMode.findLayoutRequester(this));
+            }
+            if (mMetrics != null) {
+                mMetrics.onMeasurePass();
+            }
+
+            resolveChildRoles();
+            if (mDragView == null) {
+                setDragView(mSlideableView);
+            }
+
+            // If the sliding panel is not visible, then the whole view is measured for the hidden
+            // state, which the panel changes to in the following layout
+            final boolean panelHidden = mSlideState == PanelState.HIDDEN || mSlideableView.getVisibility() != VISIBLE;
+
+            int layoutHeight = heightSize - getPaddingTop() - getPaddingBottom();
+            int layoutWidth = widthSize - getPaddingLeft() - getPaddingRight();
 
-        if (widthMode != MeasureSpec.EXACTLY && widthMode != MeasureSpec.AT_MOST) {
-            throw new IllegalStateException("Width must have an exact value or MATCH_PARENT");
-        } else if (heightMode != MeasureSpec.EXACTLY && heightMode != MeasureSpec.AT_MOST) {
-            throw new IllegalStateException("Height must have an exact value or MATCH_PARENT");
+            // footer
+            if (mStickyFooter != null && mStickyFooter.getVisibility() != GONE)
+                measureChild(mStickyFooter, widthMeasureSpec, heightMeasureSpec);
+
+            // header
+            if (mLayoutHeader != null && mLayoutHeader.getVisibility() != GONE)
+                measureRoleView(mLayoutHeader, layoutHeight, layoutWidth);
+
+            // slideable View
+            if (mSlideableView.getVisibility() != GONE)
+                measureSlideableView(layoutHeight, layoutWidth);
+
+            // main View
+            // We always measure the sliding panel in order to know it's height (needed for show panel)
+            measureMainView(layoutHeight, layoutWidth, panelHidden);
+
+            for (int i = 0, count = mFloatingViews.size(); i < count; i++) {
+                View floatingView = mFloatingViews.get(i);
+                if (floatingView.getVisibility() != GONE)
+                    measureRoleView(floatingView, layoutHeight, layoutWidth);
+            }
+            for (int i = 0, count = mOverlayViews.size(); i < count; i++) {
+                View overlayView = mOverlayViews.get(i);
+                if (overlayView.getVisibility() != GONE)
+                    measureRoleView(overlayView, layoutHeight, layoutWidth);
+            }
+            for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+                StackedPanel stackedPanel = mStackedPanels.get(i);
+                View stackedView = stackedPanel.getView();
+                if (stackedView.getVisibility() != GONE) {
+                    // like the main panel, a stacked panel does not expand over the header
+                    measureRoleView(stackedView, layoutHeight - getLayoutHeaderHeight(), layoutWidth);
+                    stackedPanel.onMeasured();
+                }
+            }
+
+            setMeasuredDimension(widthSize, heightSize);
+        } finally {
+            PanelTrace.endSection();
         }
+    }
+
+    /**
+     * Assigns the main view, panel, footer and the optional views from the roles in the layout
+     * params of the children. Children without a role fill the main, panel and footer roles in
+     * this order. Stacked panels keep their state as long as their view stays a child.
+     */
+    private void resolveChildRoles() {
+        mMainView = null;
+        mSlideableView = null;
+        mStickyFooter = null;
+        mLayoutHeader = null;
+        mFloatingViews.clear();
+        mOverlayViews.clear();
+        resolveStackedPanels();
 
         final int childCount = getChildCount();
+        boolean hasExplicitRoles = false;
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final ChildRole role = ((LayoutParams) child.getLayoutParams()).role;
+            switch (role) {
+                case MAIN:
+                    mMainView = checkRoleUnassigned(mMainView, role, child);
+                    break;
+                case PANEL:
+                    mSlideableView = checkRoleUnassigned(mSlideableView, role, child);
+                    break;
+                case FOOTER:
+                    mStickyFooter = checkRoleUnassigned(mStickyFooter, role, child);
+                    break;
+                case HEADER:
+                    mLayoutHeader = checkRoleUnassigned(mLayoutHeader, role, child);
+                    break;
+                case FLOATING_ABOVE_PANEL:
+                    mFloatingViews.add(child);
+                    break;
+                case OVERLAY:
+                    mOverlayViews.add(child);
+                    break;
+                case STACKED_PANEL:
+                    break;
+                default:
+                    continue;
+            }
+            hasExplicitRoles = true;
+        }
 
-        if (childCount > 3 || childCount < 2) {
+        if (!hasExplicitRoles && (childCount > 3 || childCount < 2)) {
             throw new IllegalStateException("Sliding up panel layout must have at least 2 children and maximum 3!");
         }
 
-        mMainView = getChildAt(0);
-        mSlideableView = getChildAt(1);
-        mStickyFooter = getChildAt(2);
-        if (mDragView == null) {
-            setDragView(mSlideableView);
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (((LayoutParams) child.getLayoutParams()).role != ChildRole.AUTO) {
+                continue;
+            }
+            if (mMainView == null) {
+                mMainView = child;
+            } else if (mSlideableView == null) {
+                mSlideableView = child;
+            } else if (mStickyFooter == null) {
+                mStickyFooter = child;
+            } else {
+                throw new IllegalStateException("Sliding up panel layout has more children than roles to assign!");
+            }
+        }
+
+        if (mMainView == null || mSlideableView == null) {
+            throw new IllegalStateException("Sliding up panel layout needs a main view and a panel!");
         }
+    }
 
-        // If the sliding panel is not visible, then put the whole view in the hidden state
-        if (mSlideableView.getVisibility() != VISIBLE) {
-            mSlideState = PanelState.HIDDEN;
+    /**
+     * Updates the stacked panels to the children with the role {@link ChildRole#STACKED_PANEL}.
+     */
+    private void resolveStackedPanels() {
+        int index = 0;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (((LayoutParams) child.getLayoutParams()).role != ChildRole.STACKED_PANEL) {
+                continue;
+            }
+            StackedPanel stackedPanel = findStackedPanel(child);
+            if (stackedPanel == null) {
+                stackedPanel = createStackedPanel(child);
+            } else {
+                mStackedPanels.remove(stackedPanel);
+            }
+            mStackedPanels.add(index++, stackedPanel);
         }
+        while (mStackedPanels.size() > index) {
+            StackedPanel removed = mStackedPanels.remove(mStackedPanels.size() - 1);
+            if (removed == mTouchStackedPanel) {
+                mTouchStackedPanel = null;
+            }
+        }
+    }
 
-        int layoutHeight = heightSize - getPaddingTop() - getPaddingBottom();
-        int layoutWidth = widthSize - getPaddingLeft() - getPaddingRight();
+    @NonNull
+    private StackedPanel createStackedPanel(@NonNull View child) {
+        StackedPanel stackedPanel = new StackedPanel(this, child, mSnapInterpolator);
+        stackedPanel.setNestedScrollingEnabled(mViewSlideHelper.isNestedScrollingEnabled());
+        stackedPanel.setSnapDurationPolicy(mSnapDurationPolicy);
+        return stackedPanel;
+    }
 
-        // footer
-        if (mStickyFooter != null && mStickyFooter.getVisibility() != GONE)
-            measureChild(mStickyFooter, widthMeasureSpec, heightMeasureSpec);
+    @Nullable
+    private StackedPanel findStackedPanel(@NonNull View child) {
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            StackedPanel stackedPanel = mStackedPanels.get(i);
+            if (stackedPanel.getView() == child) {
+                return stackedPanel;
+            }
+        }
+        return null;
+    }
 
-        // slideable View
-        if (mSlideableView.getVisibility() != GONE)
-            measureSlideableView(layoutHeight, layoutWidth);
+    /**
+     * @return The stacked panel containing the given descendant, or null if it belongs to the
+     * main panel or another child
+     */
+    @Nullable
+    private StackedPanel findStackedPanelOf(@NonNull View descendant) {
+        if (mStackedPanels.isEmpty()) {
+            return null;
+        }
+        View child = descendant;
+        ViewParent parent = child.getParent();
+        while (parent != this && parent instanceof View) {
+            child = (View) parent;
+            parent = child.getParent();
+        }
+        return parent == this ? findStackedPanel(child) : null;
+    }
 
-        // main View
-        // We always measure the sliding panel in order to know it's height (needed for show panel)
-        measureMainView(layoutHeight, layoutWidth);
+    /**
+     * Hit test for a new touch gesture: the topmost child under the touch receives it, so overlays
+     * and floating views above a stacked panel keep the gesture from it.
+     *
+     * @return The stacked panel that is the topmost child under the given position, or null if
+     * another child is above it or there is none
+     */
+    @Nullable
+    private StackedPanel findStackedPanelUnder(float x, float y) {
+        if (mStackedPanels.isEmpty()) {
+            return null;
+        }
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() != VISIBLE
+                    || x < child.getLeft() || x >= child.getRight()
+                    || y < child.getTop() + child.getTranslationY() || y >= child.getBottom() + child.getTranslationY()) {
+                continue;
+            }
+            return findStackedPanel(child);
+        }
+        return null;
+    }
 
-        setMeasuredDimension(widthSize, heightSize);
+    /**
+     * Returns the stacked panel of a child with the role {@link ChildRole#STACKED_PANEL}, which
+     * controls its state, panel height, anchor point and listeners.
+     *
+     * @param child A direct child of this layout
+     * @return The stacked panel of the child
+     * @throws IllegalArgumentException If the view is not a stacked panel of this layout
+     */
+    @NonNull
+    public StackedPanel getStackedPanel(@NonNull View child) {
+        StackedPanel stackedPanel = findStackedPanel(child);
+        if (stackedPanel != null) {
+            return stackedPanel;
+        }
+        if (child.getParent() != this || ((LayoutParams) child.getLayoutParams()).role != ChildRole.STACKED_PANEL) {
+            throw new IllegalArgumentException("The view is not a stacked panel of this layout");
+        }
+        // the order of the list is restored in the next measure pass
+        stackedPanel = createStackedPanel(child);
+        mStackedPanels.add(stackedPanel);
+        return stackedPanel;
     }
 
-    private void measureSlideableView(int layoutHeight, int layoutWidth) {
-        final LayoutParams lp = (LayoutParams) mSlideableView.getLayoutParams();
-        // The slideable view should be aware of its top margin.
-        // See https://github.com/umano/AndroidSlidingUpPanel/issues/412.
-        int height = layoutHeight - (lp.topMargin + getFooterHeight());
+    private static View checkRoleUnassigned(@Nullable View assignedView, @NonNull ChildRole role, @NonNull View child) {
+        if (assignedView != null) {
+            throw new IllegalStateException("Only one child of a sliding up panel layout may have the role " + role);
+        }
+        return child;
+    }
 
-        final int widthMeasureSpec = getChildWidthMeasureSpec(lp, layoutWidth);
-        final int heightMeasureSpec = getChildHeightMeasureSpec(lp, height);
+    private void measureRoleView(View child, int layoutHeight, int layoutWidth) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        int width = layoutWidth - (lp.leftMargin + lp.rightMargin);
+        int height = layoutHeight - (lp.topMargin + lp.bottomMargin);
+        child.measure(getChildWidthMeasureSpec(lp, width), getChildHeightMeasureSpec(lp, height));
+    }
 
-        // We need to force the measure-pass, since we rely upon the measurement of teh slideable view
-        // AND on the header view within the slideable view. When the measure cache gets hit,
-        // we get an old measure value from the header view since it did not get measured.
-        mSlideableView.forceLayout();
+    private void measureSlideableView(int layoutHeight, int layoutWidth) {
+        PanelTrace.beginSection(PanelTrace.MEASURE_SLIDEABLE_VIEW);
+        try {
+            final LayoutParams lp = (LayoutParams) mSlideableView.getLayoutParams();
+            // The slideable view should be aware of its top margin.
+            // See https://github.com/umano/AndroidSlidingUpPanel/issues/412.
+            int height = layoutHeight - (lp.topMargin + getFooterHeight() + getLayoutHeaderHeight());
+
+            final int widthMeasureSpec = getChildWidthMeasureSpec(lp, layoutWidth);
+            final int heightMeasureSpec = getChildHeightMeasureSpec(lp, height);
+
+            // We need to force the measure-pass, since we rely upon the measurement of teh slideable view
+            // AND on the header view within the slideable view. When the measure cache gets hit,
+            // we get an old measure value from the header view since it did not get measured.
+            // Without a header view, the measure cache is valid and saves a full measure pass of the
+            // panel content, which adds up when panels are nested.
+            if (mPanelAutoHeightEnabled && mHeaderView != null) {
+                mSlideableView.forceLayout();
+            }
 
-        mSlideableView.measure(widthMeasureSpec, heightMeasureSpec);
+            mSlideableView.measure(widthMeasureSpec, heightMeasureSpec);
 
-        // we expect the header view to be within the slideable View, so it already got measured
-        if (mPanelAutoHeightEnabled && mHeaderView != null) {
-            mPanelHeight = mHeaderView.getMeasuredHeight();
+            // we expect the header view to be within the slideable View, so it already got measured
+            if (mPanelAutoHeightEnabled && mHeaderView != null) {
+                mPanelHeight = mHeaderView.getMeasuredHeight();
+            }
+            mSlideRange = mSlideableView.getMeasuredHeight() - mPanelHeight;
+        } finally {
+            PanelTrace.endSection();
         }
-        mSlideRange = mSlideableView.getMeasuredHeight() - mPanelHeight;
     }
 
-    private void measureMainView(int layoutHeight, int layoutWidth) {
+    private void measureMainView(int layoutHeight, int layoutWidth, boolean panelHidden) {
         final LayoutParams lp = (LayoutParams) mMainView.getLayoutParams();
-        int height = layoutHeight;
-        if (!mOverlayContent && mSlideState != PanelState.HIDDEN) {
+        int height = layoutHeight - getLayoutHeaderHeight();
+        if (!mOverlayContent && !panelHidden) {
             height -= (mPanelHeight + getFooterHeight());
         }
         int width = layoutWidth - (lp.leftMargin + lp.rightMargin);
@@ -860,78 +1996,230 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         return mStickyFooter == null ? 0 : mStickyFooter.getMeasuredHeight();
     }
 
+    /**
+     * @return The space taken by the child with the role {@link ChildRole#HEADER}
+     */
+    private int getLayoutHeaderHeight() {
+        if (mLayoutHeader == null || mLayoutHeader.getVisibility() == GONE) {
+            return 0;
+        }
+        final LayoutParams lp = (LayoutParams) mLayoutHeader.getLayoutParams();
+        return lp.topMargin + mLayoutHeader.getMeasuredHeight() + lp.bottomMargin;
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        final int paddingLeft = getPaddingLeft();
-        final int paddingTop = getPaddingTop();
+        PanelTrace.beginSection(PanelTrace.ON_LAYOUT);
+        try {
+            final int paddingLeft = getPaddingLeft();
+            final int paddingTop = getPaddingTop();
 
-        if (mFirstLayout) {
-            switch (mSlideState) {
-                case EXPANDED:
-                    mViewSlideHelper.setSlideOffset(1.0f);
-                    break;
-                case ANCHORED:
-                    mViewSlideHelper.setSlideOffset(mSlideRange > 0.f ? mAnchorPoint : 0.f);
-                    break;
-                case HIDDEN:
-                    mViewSlideHelper.setSlideOffset(-1.0f);
-                    break;
-                default:
-                    mViewSlideHelper.setSlideOffset(0.f);
-                    break;
+            if (mMetrics != null) {
+                mMetrics.onLayoutPass();
             }
-        }
 
-        for (int i = 0; i < getChildCount(); i++) {
-            final View child = getChildAt(i);
-            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (mSlideableView.getVisibility() != VISIBLE && mSlideState != PanelState.HIDDEN) {
+                hideInvisiblePanel();
+            }
+            for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+                mStackedPanels.get(i).hideIfNotVisible();
+            }
+            mInLayout = true;
 
-            // Always layout the sliding view on the first layout
-            if (child.getVisibility() == GONE && (i == 0 || mFirstLayout)) {
-                continue;
+            if (mFirstLayout) {
+                mViewSlideHelper.setSlideOffset(getSlideOffsetForState(mSlideState));
             }
 
-            final int childHeight = child.getMeasuredHeight();
-            int childTop = paddingTop;
+            for (int i = 0; i < getChildCount(); i++) {
+                final View child = getChildAt(i);
+                final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+
+                // Always layout the sliding view on the first layout
+                if (child.getVisibility() == GONE && (child == mMainView || mFirstLayout)) {
+                    continue;
+                }
+
+                final int childHeight = child.getMeasuredHeight();
+                int childTop = paddingTop;
+                int childLeft = paddingLeft + lp.leftMargin;
+
+                if (child == mMainView) {
+                    childTop += getLayoutHeaderHeight();
+                }
+
+                if (lp.role == ChildRole.HEADER || lp.role == ChildRole.OVERLAY) {
+                    childTop += lp.topMargin;
+                }
+
+                if (lp.role == ChildRole.FLOATING_ABOVE_PANEL) {
+                    childTop = computeFloatingViewTop(child, computePanelTopPosition(mViewSlideHelper.getSlideOffset()));
+                }
+
+                if (lp.role == ChildRole.FLOATING_ABOVE_PANEL || lp.role == ChildRole.OVERLAY) {
+                    childLeft = computeGravityLeft(child, lp, r - l);
+                }
+
+                if (child == mSlideableView) {
+                    childTop = computePanelTopPosition(mViewSlideHelper.getSlideOffset());
+                    if (mViewSlideHelper.isTranslationMode() && !mViewSlideHelper.isTranslationSnapRunning()) {
+                        // the layout position already reflects the slide offset
+                        child.setTranslationY(0);
+                    }
+                }
+
+                if (child == mStickyFooter) {
+                    childTop = computeFooterTopPosition(mViewSlideHelper.getSlideOffset());
+                }
+
+                if (lp.role == ChildRole.STACKED_PANEL) {
+                    StackedPanel stackedPanel = findStackedPanel(child);
+                    if (stackedPanel != null) {
+                        childTop = stackedPanel.computeLayoutTop();
+                    }
+                }
+
+                final int childBottom = childTop + childHeight;
+                final int childRight = childLeft + child.getMeasuredWidth();
 
-            if (child == mSlideableView) {
-                childTop = computePanelTopPosition(mViewSlideHelper.getSlideOffset());
+                child.layout(childLeft, childTop, childRight, childBottom);
             }
 
-            if (child == mStickyFooter) {
-                childTop = computeFooterTopPosition(mViewSlideHelper.getSlideOffset());
+            if (mFirstLayout) {
+                updateObscuredViewVisibility();
+            } else if (mSizeChanged) {
+                mViewSlideHelper.retargetSnap();
+                if (mSlideState == PanelState.ANCHORED
+                        && !isFloatEqual(mViewSlideHelper.getSlideOffset(), getSlideOffsetForState(PanelState.ANCHORED))) {
+                    // the anchor point can only be reached if the panel has a slide range
+                    mViewSlideHelper.setSlideOffset(getSlideOffsetForState(PanelState.ANCHORED));
+                }
+                if (mSlideState == PanelState.EXPANDED) {
+                    // the expanded panel may not cover the main view anymore or cover it now
+                    updateObscuredViewVisibility();
+                }
+                // a main view that was stretched behind a hiding panel has a height of the old geometry
+                updateMainViewHeight(getPanelTop(), mViewSlideHelper.getSlideOffset());
+            }
+            mSizeChanged = false;
+            // the bounds of the panel may have changed
+            mMainViewClipPanelTop = Integer.MIN_VALUE;
+            applyParallaxForCurrentSlideOffset();
+            applyKeyframesForCurrentSlideOffset();
+            for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+                mStackedPanels.get(i).applyKeyframesForCurrentSlideOffset();
             }
 
-            final int childBottom = childTop + childHeight;
-            final int childLeft = paddingLeft + lp.leftMargin;
-            final int childRight = childLeft + child.getMeasuredWidth();
+            mFirstLayout = false;
+            mInLayout = false;
+            if (mEditTargetState != null) {
+                animateEditTransition();
+            }
+            if (mStrictModePolicy != null) {
+                checkInvariants();
+            }
+        } finally {
+            PanelTrace.endSection();
+        }
+    }
+
+    /**
+     * Puts a panel whose view is not visible anymore into the hidden state. The panel can't move
+     * or settle anymore, so its gesture ends here and it is positioned for the hidden state like
+     * in the first layout.
+     */
+    private void hideInvisiblePanel() {
+        mViewSlideHelper.cancelMovement();
+        cancelGesture();
+        mFirstLayout = true;
+        mGestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+        setPanelStateInternal(PanelState.HIDDEN);
+    }
+
+    /**
+     * Completes the metrics of the gesture of any panel that settled and delivers them to the
+     * gesture metrics listeners.
+     */
+    void finishGestureMetrics() {
+        final PanelMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onGestureFinished();
+            for (PanelMetrics.OnGestureMetricsListener listener : mGestureMetricsListeners) {
+                listener.onGestureMetrics(metrics);
+            }
+        }
+    }
 
-            child.layout(childLeft, childTop, childRight, childBottom);
+    /**
+     * Ends the trace slice and the metrics of a gesture that ends without the panel settling.
+     */
+    private void cancelGesture() {
+        PanelTrace.endGesture(mGestureTraceCookie);
+        mGestureTraceCookie = -1;
+        if (mMetrics != null) {
+            mMetrics.onGestureCancelled();
         }
+    }
 
-        if (mFirstLayout) {
-            updateObscuredViewVisibility();
+    /**
+     * Animates the panel from where it was before the changes of an {@link Editor} to its target
+     * state in the new geometry.
+     */
+    private void animateEditTransition() {
+        final PanelState targetState = mEditTargetState;
+        mEditTargetState = null;
+        if (!isEnabled() || mSlideableView == null) {
+            return;
         }
-        applyParallaxForCurrentSlideOffset();
+        final float targetOffset = getSlideOffsetForState(targetState);
+        final float startOffset = computeSlideOffset(mEditStartTop);
+        if (targetState == mSlideState && isFloatEqual(startOffset, targetOffset)
+                && getPanelTop() == computePanelTopPosition(targetOffset)) {
+            return;
+        }
+        mViewSlideHelper.slideTo(startOffset, targetOffset);
+        showObscuredView();
+        ViewCompat.postInvalidateOnAnimation(this);
+    }
 
-        mFirstLayout = false;
+    /**
+     * @return The slide offset of a panel resting in the given state, {@link PanelState#DRAGGING}
+     * is treated as collapsed
+     */
+    private float getSlideOffsetForState(@NonNull PanelState state) {
+        switch (state) {
+            case EXPANDED:
+                return 1.0f;
+            case ANCHORED:
+                return mSlideRange > 0.f ? mAnchorPoint : 0.f;
+            case HIDDEN:
+                return -1.0f;
+            default:
+                return 0.f;
+        }
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        // Recalculate sliding panes and their details
-        if (h != oldh) {
-            mFirstLayout = true;
+        // The slide offset is relative to the geometry, so it stays valid. Only the dependent
+        // details are recalculated in the next layout.
+        if (h != oldh && !mFirstLayout) {
+            mSizeChanged = true;
         }
     }
 
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
-        if (ev.getActionMasked() == MotionEvent.ACTION_DOWN
+        if (ev.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            mTouchStackedPanel = findStackedPanelUnder(ev.getX(), ev.getY());
+        }
+        if (mTouchStackedPanel != null) {
+            // the whole gesture belongs to the stacked panel it started on
+            return mTouchStackedPanel.onInterceptTouchEvent(ev);
+        } else if (ev.getActionMasked() == MotionEvent.ACTION_DOWN
                 && mFadeOnClickListener != null
-                && (ev.getY() < mSlideableView.getTop()
-                || ev.getY() > mSlideableView.getBottom()
+                && (ev.getY() < getPanelTop()
+                || ev.getY() > getPanelBottom()
                 || ev.getX() < mSlideableView.getLeft()
                 || ev.getX() > mSlideableView.getRight())
                 && (mSlideState == PanelState.ANCHORED || mSlideState == PanelState.EXPANDED)
@@ -948,10 +2236,13 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     //                                             The View is not very accessible atm, sorry :-/
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (mTouchStackedPanel != null) {
+            return mTouchStackedPanel.onTouchEvent(event);
+        }
         boolean fadeClicked = false;
         if (event.getActionMasked() == MotionEvent.ACTION_UP) {
-            if (mTouchingFade && (event.getY() < mSlideableView.getTop()
-                    || event.getY() > mSlideableView.getBottom()
+            if (mTouchingFade && (event.getY() < getPanelTop()
+                    || event.getY() > getPanelBottom()
                     || event.getX() < mSlideableView.getLeft()
                     || event.getX() > mSlideableView.getRight())) {
                 playSoundEffect(android.view.SoundEffectConstants.CLICK);
@@ -965,18 +2256,32 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
     @Override
     public boolean onStartNestedScroll(@NonNull View child, @NonNull View target, int axes, int type) {
+        StackedPanel stackedPanel = findStackedPanel(child);
+        if (stackedPanel != null) {
+            return stackedPanel.onStartNestedScroll(child, target, axes, type);
+        }
         return mViewSlideHelper.onStartNestedScroll(child, target, axes, type);
     }
 
     @Override
     public void onNestedScrollAccepted(@NonNull View child, @NonNull View target, int axes, int type) {
         nestedScrollingHelper.onNestedScrollAccepted(child, target, axes, type);
-        mViewSlideHelper.onNestedScrollAccepted(child, target, axes, type);
+        StackedPanel stackedPanel = findStackedPanel(child);
+        if (stackedPanel != null) {
+            stackedPanel.onNestedScrollAccepted(child, target, axes, type);
+        } else {
+            mViewSlideHelper.onNestedScrollAccepted(child, target, axes, type);
+        }
     }
 
     @Override
     public void onNestedPreScroll(@NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
-        mViewSlideHelper.onNestedPreScroll(target, dx, dy, consumed, type);
+        StackedPanel stackedPanel = findStackedPanelOf(target);
+        if (stackedPanel != null) {
+            stackedPanel.onNestedPreScroll(target, dx, dy, consumed, type);
+        } else {
+            mViewSlideHelper.onNestedPreScroll(target, dx, dy, consumed, type);
+        }
     }
 
     @Override
@@ -985,7 +2290,12 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
     @Override
     public void onNestedScroll(@NonNull View target, int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed, int type, @NonNull int[] consumed) {
-        mViewSlideHelper.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type, consumed);
+        StackedPanel stackedPanel = findStackedPanelOf(target);
+        if (stackedPanel != null) {
+            stackedPanel.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type, consumed);
+        } else {
+            mViewSlideHelper.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type, consumed);
+        }
     }
 
     @Override
@@ -996,7 +2306,12 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     @Override
     public void onStopNestedScroll(@NonNull View target, int type) {
         nestedScrollingHelper.onStopNestedScroll(target, type);
-        mViewSlideHelper.onStopNestedScroll(target, type);
+        StackedPanel stackedPanel = findStackedPanelOf(target);
+        if (stackedPanel != null) {
+            stackedPanel.onStopNestedScroll(target, type);
+        } else {
+            mViewSlideHelper.onStopNestedScroll(target, type);
+        }
     }
 
     @Override
@@ -1009,19 +2324,62 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
      * Computes the top position of the panel based on the slide offset.
      */
     int computePanelTopPosition(float slideOffset) {
-        int slidePixelOffset;
-        int footerHeight = getFooterHeight();
-        if (slideOffset >= 0) {
-            slidePixelOffset = (int) ((footerHeight + mPanelHeight) + (slideOffset * mSlideRange));
-        } else {
-            slidePixelOffset = (int) ((footerHeight + mPanelHeight) * (1.0f + slideOffset));
+        int panelTop = PanelGeometry.computePanelTop(slideOffset, getMeasuredHeight() - getPaddingBottom(),
+                getFooterHeight() + mPanelHeight, mSlideRange);
+        // Don't return values higher than our height, otherwise there is a bug when adjusting
+        // the height of mMainView in onPanelDragged()
+        panelTop = Math.min(panelTop, getMeasuredHeight());
+        // lift the panel above the input method, but never beyond the top of the layout
+        return panelTop - Math.min(mImeInset, Math.max(0, panelTop - getPaddingTop()));
+    }
+
+    /*
+     * Computes the top position of a view with the role FLOATING_ABOVE_PANEL.
+     */
+    private int computeFloatingViewTop(View floatingView, int panelTop) {
+        final LayoutParams lp = (LayoutParams) floatingView.getLayoutParams();
+        return panelTop - lp.bottomMargin - floatingView.getMeasuredHeight();
+    }
+
+    /*
+     * Computes the left position of a view based on the horizontal part of its layout_gravity.
+     */
+    private int computeGravityLeft(View child, LayoutParams lp, int width) {
+        final int absoluteGravity = GravityCompat.getAbsoluteGravity(lp.gravity, ViewCompat.getLayoutDirection(this));
+        switch (absoluteGravity & Gravity.HORIZONTAL_GRAVITY_MASK) {
+            case Gravity.RIGHT:
+                return width - getPaddingRight() - lp.rightMargin - child.getMeasuredWidth();
+            case Gravity.CENTER_HORIZONTAL:
+                return getPaddingLeft() + (width - getPaddingLeft() - getPaddingRight() - child.getMeasuredWidth()) / 2
+                        + lp.leftMargin - lp.rightMargin;
+            default:
+                return getPaddingLeft() + lp.leftMargin;
+        }
+    }
+
+    /*
+     * Computes the slide offset based on the top position of the panel.
+     */
+    float computeSlideOffset(int panelTop) {
+        if (mImeInset > 0 && panelTop > getPaddingTop()) {
+            panelTop += mImeInset;
         }
+        return PanelGeometry.computeSlideOffset(panelTop, getMeasuredHeight() - getPaddingBottom(),
+                getFooterHeight() + mPanelHeight, mSlideRange);
+    }
+
+    /**
+     * @return The current visual top position of the slideable view
+     */
+    private int getPanelTop() {
+        return mViewSlideHelper.getPanelTop();
+    }
 
-        // Compute the top of the panel if its collapsed
-        int panelTop = (getMeasuredHeight() - getPaddingBottom() - slidePixelOffset);
-        // Don't return values higher than our height, otherwise there is a bug when adjusting
-        // the height of mMainView in onPanelDragged()
-        return Math.min(panelTop, getMeasuredHeight());
+    /**
+     * @return The current visual bottom position of the slideable view
+     */
+    private int getPanelBottom() {
+        return getPanelTop() + mSlideableView.getHeight();
     }
 
     /*
@@ -1030,7 +2388,7 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     private int computeFooterTopPosition(float slideOffset) {
         int footerHeight = getFooterHeight();
         if (slideOffset >= 0) {
-            return getMeasuredHeight() - getPaddingBottom() - footerHeight;
+            return getMeasuredHeight() - getPaddingBottom() - mImeInset - footerHeight;
         } else {
             return computePanelTopPosition(slideOffset) + mPanelHeight;
         }
@@ -1046,8 +2404,20 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         return mSlideState;
     }
 
+    /**
+     * @return The current slide offset of the panel, from -1 (hidden) over 0 (collapsed) to 1
+     * (expanded)
+     */
+    public float getSlideOffset() {
+        return mViewSlideHelper.getSlideOffset();
+    }
+
     /**
      * Change panel state to the given state with
+     * <p>
+     * When called from a {@link PanelSlideListener}, the request is deferred until the touch event
+     * or animation frame that notified the listeners was processed. Of several requests made
+     * during a dispatch only the last one is applied. A drag in progress is ended by the request.
      *
      * @param state - new panel state
      */
@@ -1055,11 +2425,17 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         if (state == PanelState.DRAGGING) {
             throw new IllegalArgumentException("Panel state cannot be null or DRAGGING.");
         }
+        if (mDispatchDepth > 0) {
+            mPendingPanelState = state;
+            return;
+        }
+        mPendingPanelState = null;
         if (!isEnabled()
                 || (!mFirstLayout && mSlideableView == null)
                 || state == mSlideState) return;
 
         if (mFirstLayout) {
+            mGestureSource = PanelStateEvent.Source.PROGRAMMATIC;
             setPanelStateInternal(state);
         } else {
             switch (state) {
@@ -1081,11 +2457,94 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
     private void setPanelStateInternal(@NonNull PanelState state) {
         if (mSlideState == state) return;
+        // the transition table is a diagnostic, the state changes in any case
+        if (!mFirstLayout && !PanelStateTransitions.isValid(mSlideState, state)) {
+            reportInvalidTransition(mSlideState, state);
+        }
         PanelState oldState = mSlideState;
         mSlideState = state;
         dispatchOnPanelStateChanged(this, oldState, state);
     }
 
+    void reportInvalidTransition(@NonNull PanelState from, @NonNull PanelState to) {
+        final PanelStrictMode.Policy policy = mStrictModePolicy;
+        if (policy != null && policy.detects(PanelStrictMode.ViolationType.INVARIANT)) {
+            policy.report(new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                    "invalid state transition " + from + " -> " + to));
+        }
+    }
+
+    /**
+     * @return True while listeners of any panel of this layout are notified, requests made then
+     * are deferred
+     */
+    boolean isDispatching() {
+        return mDispatchDepth > 0;
+    }
+
+    /**
+     * Starts a listener dispatch, which must be ended with {@link #endDispatch()}.
+     */
+    void beginDispatch() {
+        mDispatchDepth++;
+    }
+
+    /**
+     * Ends a listener dispatch. Requests deferred during the outermost one are applied after the
+     * touch event or animation frame that caused the dispatch returned, so they never change the
+     * panel while it is being moved.
+     */
+    void endDispatch() {
+        if (--mDispatchDepth == 0 && !mPendingRequestsPosted && hasPendingRequests()) {
+            mPendingRequestsPosted = true;
+            post(mApplyPendingRequests);
+        }
+    }
+
+    private boolean hasPendingRequests() {
+        if (mPendingPanelHeight != NO_PENDING_PANEL_HEIGHT || mPendingPanelState != null || !mPendingEdits.isEmpty()) {
+            return true;
+        }
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            if (mStackedPanels.get(i).hasPendingRequests()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the requests deferred during a listener dispatch: the height first, then the
+     * editors and the state last, so that it is applied to the new geometry. The requests of the
+     * stacked panels follow those of the main panel.
+     */
+    private void applyPendingRequests() {
+        if (mPendingRequestsPosted) {
+            mPendingRequestsPosted = false;
+            removeCallbacks(mApplyPendingRequests);
+        }
+        final int panelHeight = mPendingPanelHeight;
+        final PanelState state = mPendingPanelState;
+        mPendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
+        mPendingPanelState = null;
+        if (panelHeight != NO_PENDING_PANEL_HEIGHT) {
+            setPanelHeight(panelHeight);
+        }
+        if (!mPendingEdits.isEmpty()) {
+            final Editor[] edits = mPendingEdits.toArray(new Editor[0]);
+            mPendingEdits.clear();
+            for (Editor edit : edits) {
+                edit.apply(edit.mPendingAnimate);
+            }
+        }
+        if (state != null) {
+            setPanelState(state);
+        }
+        for (int i = 0, count = mStackedPanels.size(); i < count; i++) {
+            mStackedPanels.get(i).applyPendingRequests();
+        }
+    }
+
     /**
      * Update the parallax based on the current slide offset.
      */
@@ -1097,66 +2556,156 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         }
     }
 
+    private void applyKeyframesForCurrentSlideOffset() {
+        if (mKeyframes != null) {
+            applyKeyframes(mKeyframes, mKeyframeTargets, mViewSlideHelper.getSlideOffset());
+        }
+    }
+
+    /**
+     * Applies the keyframes of any panel, the views they change are not reported as redraws
+     * during a movement.
+     */
+    void applyKeyframes(@NonNull PanelKeyframes keyframes, @NonNull View[] targets, float slideOffset) {
+        mApplyingKeyframes = true;
+        try {
+            keyframes.apply(this, targets, slideOffset);
+        } finally {
+            mApplyingKeyframes = false;
+        }
+    }
+
     private void onPanelDragged(int newTop, float newSlideOffset) {
         // Recompute the slide offset based on the new top position
         applyParallaxForCurrentSlideOffset();
+        applyKeyframesForCurrentSlideOffset();
         // Dispatch the slide event
         dispatchOnPanelSlide(mSlideableView, newSlideOffset);
+        updateMainViewHeight(newTop, newSlideOffset);
+
+        if (mStickyFooter != null) {
+            int footerTop = computeFooterTopPosition(mViewSlideHelper.getSlideOffset());
+            mStickyFooter.offsetTopAndBottom(footerTop - mStickyFooter.getTop());
+        }
+
+        for (int i = 0, count = mFloatingViews.size(); i < count; i++) {
+            View floatingView = mFloatingViews.get(i);
+            floatingView.offsetTopAndBottom(computeFloatingViewTop(floatingView, newTop) - floatingView.getTop());
+        }
+    }
+
+    private void updateMainViewHeight(int newTop, float newSlideOffset) {
         // If the slide offset is negative, and overlay is not on, we need to increase the
         // height of the main content
         LayoutParams lp = (LayoutParams) mMainView.getLayoutParams();
-        int defaultHeight = getHeight() - getPaddingBottom() - getPaddingTop() - mPanelHeight - getFooterHeight();
+        int defaultHeight = getHeight() - getPaddingBottom() - getPaddingTop() - mPanelHeight - getFooterHeight() - getLayoutHeaderHeight();
 
         if (newSlideOffset <= 0 && !mOverlayContent) {
             // expand the main view
-            lp.height = newTop - getPaddingBottom();
-            if (lp.height == defaultHeight) {
-                lp.height = LayoutParams.MATCH_PARENT;
+            int height = newTop - getPaddingTop() - getLayoutHeaderHeight();
+            if (height == defaultHeight) {
+                height = LayoutParams.MATCH_PARENT;
+            }
+            // only request a layout if the size actually changed, a collapsed panel that is
+            // dragged against its lower bound must not cause a layout on every move
+            if (lp.height != height) {
+                lp.height = height;
+                mMainView.requestLayout();
             }
-            mMainView.requestLayout();
         } else if (lp.height != LayoutParams.MATCH_PARENT && !mOverlayContent) {
             lp.height = LayoutParams.MATCH_PARENT;
             mMainView.requestLayout();
         }
-
-        if (mStickyFooter != null) {
-            int footerTop = computeFooterTopPosition(mViewSlideHelper.getSlideOffset());
-            mStickyFooter.offsetTopAndBottom(footerTop - mStickyFooter.getTop());
-        }
     }
 
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
-        boolean result;
-        final int save = canvas.save();
+        PanelTrace.beginSection(PanelTrace.DRAW_CHILD);
+        try {
+            boolean result;
+            final int save = canvas.save();
+
+            if (child == mMainView) { // if main view
+                // Clip against the slider; no sense drawing what will immediately be covered
+                int panelTop = getPanelTop();
+                if (mViewSlideHelper.isTranslationSnapRunning()) {
+                    // the panel moves without this view being redrawn, so do not clip anything
+                    // that might get uncovered during the animation
+                    panelTop = Math.max(panelTop, computePanelTopPosition(mViewSlideHelper.getSnapTarget()));
+                }
+                updateMainViewClip(panelTop);
+                if (!mOverlayContent) {
+                    if (mClipPanel) {
+                        canvas.clipRect(mMainViewClip);
+                    }
+                    mTmpRect.set(mMainViewClip);
+                } else {
+                    if (mClipPanel && isSlideableViewOpaque() && !mViewSlideHelper.isTranslationSnapRunning()) {
+                        // the content below an opaque panel would be overdrawn anyway
+                        clipOut(canvas, mMainViewClip);
+                    }
+                    mTmpRect.set(0, 0, getWidth(), getHeight());
+                }
 
-        if (child == mMainView) { // if main view
-            // Clip against the slider; no sense drawing what will immediately be covered,
-            // Unless the panel is set to overlay content
-            canvas.getClipBounds(mTmpRect);
-            if (!mOverlayContent) {
-                mTmpRect.bottom = Math.min(mTmpRect.bottom, mSlideableView.getTop());
-            }
-            if (mClipPanel) {
-                canvas.clipRect(mTmpRect);
+                result = super.drawChild(canvas, child, drawingTime);
+
+                final int fadeColor = PanelGeometry.computeFadeColor(mCoveredFadeColor, mViewSlideHelper.getSlideOffset());
+                if (fadeColor != 0) {
+                    mCoveredFadePaint.setColor(fadeColor);
+                    canvas.drawRect(mTmpRect, mCoveredFadePaint);
+                }
+            } else {
+                result = super.drawChild(canvas, child, drawingTime);
             }
 
-            result = super.drawChild(canvas, child, drawingTime);
+            canvas.restoreToCount(save);
 
-            if (mCoveredFadeColor != 0 && mViewSlideHelper.getSlideOffset() > 0) {
-                final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;
-                final int imag = (int) (baseAlpha * mViewSlideHelper.getSlideOffset());
-                final int color = imag << 24 | (mCoveredFadeColor & 0xffffff);
-                mCoveredFadePaint.setColor(color);
-                canvas.drawRect(mTmpRect, mCoveredFadePaint);
-            }
+            return result;
+        } finally {
+            PanelTrace.endSection();
+        }
+    }
+
+    /**
+     * Computes the clip of the main view for the given panel top, unless it is cached already.
+     */
+    private void updateMainViewClip(int panelTop) {
+        if (panelTop == mMainViewClipPanelTop) {
+            return;
+        }
+        mMainViewClipPanelTop = panelTop;
+        if (!mOverlayContent) {
+            mMainViewClip.set(0, 0, getWidth(), panelTop);
         } else {
-            result = super.drawChild(canvas, child, drawingTime);
+            mMainViewClip.set(mSlideableView.getLeft(), panelTop, mSlideableView.getRight(),
+                    panelTop + mSlideableView.getHeight());
         }
+    }
+
+    private boolean isSlideableViewOpaque() {
+        return mSlideableView.getVisibility() == VISIBLE
+                && mSlideableView.getAlpha() == 1f
+                && hasOpaqueBackground(mSlideableView);
+    }
 
-        canvas.restoreToCount(save);
+    @SuppressWarnings("deprecation")
+    private static void clipOut(Canvas canvas, Rect rect) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            canvas.clipOutRect(rect);
+        } else {
+            canvas.clipRect(rect, Region.Op.DIFFERENCE);
+        }
+    }
 
-        return result;
+    /**
+     * Prepares the touch tracking and the snap animation of the panel, so the first drag after a
+     * cold start does not initialize them while the user is watching. Call it when the screen is
+     * idle, e.g. after the first frame was drawn. The panel is not moved.
+     */
+    public void prewarm() {
+        if (mViewSlideHelper != null) {
+            mViewSlideHelper.prewarm();
+        }
     }
 
     /**
@@ -1170,22 +2719,38 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
             return;
         }
         mViewSlideHelper.slideTo(slideOffset);
-        setAllChildrenVisible();
+        showObscuredView();
         ViewCompat.postInvalidateOnAnimation(this);
     }
 
     @Override
     public void draw(Canvas c) {
-        super.draw(c);
+        PanelTrace.beginSection(PanelTrace.DRAW);
+        try {
+            super.draw(c);
+
+            // draw the shadow, unless the panel moves independently of this view
+            if (mShadowDrawable != null && mSlideableView != null && !mViewSlideHelper.isTranslationSnapRunning()) {
+                final int right = mSlideableView.getRight();
+                final int top = getPanelTop() - mShadowHeight;
+                final int bottom = getPanelTop();
+                final int left = mSlideableView.getLeft();
+                mShadowDrawable.setBounds(left, top, right, bottom);
+                mShadowDrawable.draw(c);
+            }
 
-        // draw the shadow
-        if (mShadowDrawable != null && mSlideableView != null) {
-            final int right = mSlideableView.getRight();
-            final int top = mSlideableView.getTop() - mShadowHeight;
-            final int bottom = mSlideableView.getTop();
-            final int left = mSlideableView.getLeft();
-            mShadowDrawable.setBounds(left, top, right, bottom);
-            mShadowDrawable.draw(c);
+            final PanelMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onFrameDrawn();
+                metrics.setSnapTarget(mViewSlideHelper.getSnapTarget());
+                metrics.setReleaseVelocity(mViewSlideHelper.getReleaseVelocity());
+                if (mDebugOverlay != null) {
+                    mDebugOverlay.draw(c, metrics, mSlideState, mViewSlideHelper.getSlideOffset(),
+                            getPaddingLeft(), getPaddingTop());
+                }
+            }
+        } finally {
+            PanelTrace.endSection();
         }
     }
 
@@ -1216,6 +2781,9 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
         Bundle bundle = new Bundle();
         bundle.putParcelable("superState", super.onSaveInstanceState());
         bundle.putSerializable(SLIDING_STATE, mSlideState != PanelState.DRAGGING ? mSlideState : mLastNotDraggingSlideState);
+        if (!mStackedPanels.isEmpty()) {
+            bundle.putSerializable(STACKED_SLIDING_STATES, getStackedPanelStates());
+        }
         return bundle;
     }
 
@@ -1225,12 +2793,278 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
             Bundle bundle = (Bundle) state;
             PanelState deserializedState = (PanelState) bundle.getSerializable(SLIDING_STATE);
             mSlideState = deserializedState == null ? DEFAULT_SLIDE_STATE : deserializedState;
+            restoreStackedPanelStates((PanelState[]) bundle.getSerializable(STACKED_SLIDING_STATES));
             state = bundle.getParcelable("superState");
         }
         super.onRestoreInstanceState(state);
     }
 
+    /**
+     * @return The states of the stacked panels to save, in child order
+     */
+    @NonNull
+    private PanelState[] getStackedPanelStates() {
+        List<PanelState> stackedStates = new ArrayList<>();
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (((LayoutParams) child.getLayoutParams()).role == ChildRole.STACKED_PANEL) {
+                stackedStates.add(getStackedPanel(child).getRestingState());
+            }
+        }
+        return stackedStates.toArray(new PanelState[0]);
+    }
+
+    /**
+     * Restores the states of the stacked panels, which are saved in child order.
+     */
+    private void restoreStackedPanelStates(@Nullable PanelState[] stackedStates) {
+        if (stackedStates == null) {
+            return;
+        }
+        int index = 0;
+        for (int i = 0, childCount = getChildCount(); i < childCount && index < stackedStates.length; i++) {
+            final View child = getChildAt(i);
+            if (((LayoutParams) child.getLayoutParams()).role == ChildRole.STACKED_PANEL) {
+                getStackedPanel(child).restoreState(stackedStates[index++]);
+            }
+        }
+    }
+
+    /**
+     * Starts a transaction that changes several properties of the panel at once.
+     *
+     * @return An editor, whose changes are applied with {@link Editor#apply()} or
+     * {@link Editor#apply(boolean)}
+     */
+    @NonNull
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Collects changes of the panel properties and applies them together, e.g. when switching
+     * between screen modes. The changes cause at most one layout pass, and none if only the
+     * drawing is affected, and the panel does not show intermediate states.
+     *
+     * @see #edit()
+     */
+    public final class Editor {
+        private boolean mHasPanelHeight;
+        private int mNewPanelHeight;
+        private boolean mHasShadowHeight;
+        private int mNewShadowHeight;
+        private boolean mHasParallaxOffset;
+        private int mNewParallaxOffset;
+        private boolean mHasAnchorPoint;
+        private float mNewAnchorPoint;
+        private boolean mHasCoveredFadeColor;
+        private int mNewCoveredFadeColor;
+        private boolean mHasOverlayed;
+        private boolean mNewOverlayed;
+        private boolean mHasClipPanel;
+        private boolean mNewClipPanel;
+        @Nullable
+        private PanelState mNewPanelState;
+        private boolean mPendingAnimate;
+
+        private Editor() {
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setPanelHeight(int)
+         */
+        @NonNull
+        public Editor setPanelHeight(int val) {
+            if (val == PANEL_HEIGHT_AUTO && (mHeaderViewResId == -1 || mHeaderView == null)) {
+                throw new IllegalStateException("PANEL_HEIGHT_AUTO can't be set without defining a headerView");
+            }
+            mHasPanelHeight = true;
+            mNewPanelHeight = val;
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setShadowHeight(int)
+         */
+        @NonNull
+        public Editor setShadowHeight(int val) {
+            mHasShadowHeight = true;
+            mNewShadowHeight = val;
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setParallaxOffset(int)
+         */
+        @NonNull
+        public Editor setParallaxOffset(int val) {
+            mHasParallaxOffset = true;
+            mNewParallaxOffset = val;
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setAnchorPoint(float)
+         */
+        @NonNull
+        public Editor setAnchorPoint(float anchorPoint) {
+            if (anchorPoint > 0 && anchorPoint <= 1) {
+                mHasAnchorPoint = true;
+                mNewAnchorPoint = anchorPoint;
+            }
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setCoveredFadeColor(int)
+         */
+        @NonNull
+        public Editor setCoveredFadeColor(int color) {
+            mHasCoveredFadeColor = true;
+            mNewCoveredFadeColor = color;
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setOverlayed(boolean)
+         */
+        @NonNull
+        public Editor setOverlayed(boolean overlayed) {
+            mHasOverlayed = true;
+            mNewOverlayed = overlayed;
+            return this;
+        }
+
+        /**
+         * @see SlidingUpPanelLayout#setClipPanel(boolean)
+         */
+        @NonNull
+        public Editor setClipPanel(boolean clip) {
+            mHasClipPanel = true;
+            mNewClipPanel = clip;
+            return this;
+        }
+
+        /**
+         * Sets the state the panel is in after the changes were applied.
+         *
+         * @see SlidingUpPanelLayout#setPanelState(PanelState)
+         */
+        @NonNull
+        public Editor setPanelState(@NonNull PanelState state) {
+            if (state == PanelState.DRAGGING) {
+                throw new IllegalArgumentException("Panel state cannot be null or DRAGGING.");
+            }
+            mNewPanelState = state;
+            return this;
+        }
+
+        /**
+         * Applies the changes without animation. A resting panel is moved to its position in the
+         * new geometry at once.
+         */
+        public void apply() {
+            apply(false);
+        }
+
+        /**
+         * Applies the changes.
+         *
+         * @param animate True to animate the panel from its current position to its position in
+         *                the new geometry, false to move it there at once. A panel that is dragged
+         *                or snaps is always animated.
+         *                <p>
+         *                Like {@link SlidingUpPanelLayout#setPanelState(PanelState)}, changes
+         *                applied from a {@link PanelSlideListener} are deferred until the touch
+         *                event or animation frame that notified the listeners was processed.
+         */
+        public void apply(boolean animate) {
+            if (mDispatchDepth > 0) {
+                mPendingAnimate = animate;
+                if (!mPendingEdits.contains(this)) {
+                    mPendingEdits.add(this);
+                }
+                return;
+            }
+            boolean layout = false;
+            boolean redraw = false;
+            if (mHasPanelHeight) {
+                if (mNewPanelHeight == PANEL_HEIGHT_AUTO) {
+                    layout = !mPanelAutoHeightEnabled;
+                    mPanelAutoHeightEnabled = true;
+                } else {
+                    layout = mPanelAutoHeightEnabled || mPanelHeight != mNewPanelHeight;
+                    mPanelAutoHeightEnabled = false;
+                    mPanelHeight = mNewPanelHeight;
+                }
+            }
+            if (mHasAnchorPoint && mAnchorPoint != mNewAnchorPoint) {
+                mAnchorPoint = mNewAnchorPoint;
+                layout = true;
+            }
+            if (mHasOverlayed && mOverlayContent != mNewOverlayed) {
+                // the main view is measured differently with overlay
+                mOverlayContent = mNewOverlayed;
+                mMainViewClipPanelTop = Integer.MIN_VALUE;
+                layout = true;
+            }
+            if (mHasShadowHeight && mShadowHeight != mNewShadowHeight) {
+                mShadowHeight = mNewShadowHeight;
+                redraw = true;
+            }
+            if (mHasCoveredFadeColor && mCoveredFadeColor != mNewCoveredFadeColor) {
+                mCoveredFadeColor = mNewCoveredFadeColor;
+                redraw = true;
+            }
+            if (mHasClipPanel && mClipPanel != mNewClipPanel) {
+                mClipPanel = mNewClipPanel;
+                redraw = true;
+            }
+            if (mHasParallaxOffset && mParallaxOffset != mNewParallaxOffset) {
+                // the parallax is a translation, which is applied without a layout pass
+                mParallaxOffset = mNewParallaxOffset;
+                if (!mFirstLayout && mMainView != null) {
+                    ViewCompat.setTranslationY(mMainView, 0);
+                    applyParallaxForCurrentSlideOffset();
+                }
+            }
+
+            final PanelState targetState = mNewPanelState != null ? mNewPanelState
+                    : layout && mSlideState != PanelState.DRAGGING ? mSlideState : null;
+            if (mFirstLayout || mSlideableView == null) {
+                if (mNewPanelState != null) {
+                    mPendingPanelState = null;
+                    mGestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+                    setPanelStateInternal(mNewPanelState);
+                }
+                requestLayout();
+            } else if (!animate && targetState != null && mSlideState != PanelState.DRAGGING
+                    && (layout || targetState != mSlideState)) {
+                // reposition the panel as in the first layout
+                mPendingPanelState = null;
+                mFirstLayout = true;
+                mGestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+                setPanelStateInternal(targetState);
+                requestLayout();
+            } else if (layout) {
+                mEditStartTop = getPanelTop();
+                mEditTargetState = targetState;
+                requestLayout();
+            } else if (targetState != null) {
+                setPanelState(targetState);
+            }
+            if (redraw) {
+                invalidate();
+            }
+        }
+    }
+
     private class DragHelperCallback implements ViewSlideHelper.Callback {
+        /**
+         * Reused for the hit tests, which run for every touch event of a gesture
+         */
+        private final int[] tmpLocation = new int[2];
+
         @Override
         public boolean isFling(float velocity) {
             return Math.abs(velocity) > mMinFlingVelocity;
@@ -1238,11 +3072,25 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
         @Override
         public boolean isDraggable(float screenX, float screenY) {
-            int[] viewLocation = new int[2];
-            if (mStickyFooter != null && isViewUnder(mStickyFooter, screenX, screenY, viewLocation)) {
+            if (mStickyFooter != null && isViewUnder(mStickyFooter, screenX, screenY, tmpLocation)) {
+                return false;
+            }
+            return isViewUnder(mDragView, screenX, screenY, tmpLocation);
+        }
+
+        @Override
+        public boolean isScrollableViewDrag(float screenX, float screenY, float deltaY) {
+            if (mScrollableView == null || mScrollableView.getVisibility() != VISIBLE
+                    || !isViewUnder(mScrollableView, screenX, screenY, tmpLocation)) {
+                return false;
+            }
+            if (mViewSlideHelper.getSlideOffset() < 1.0f) {
+                // the panel has to be expanded before its content scrolls
                 return false;
             }
-            return isViewUnder(mDragView, screenX, screenY, viewLocation);
+            // moving the finger up scrolls towards the end of the content, the expanded panel
+            // can't move any further in this direction anyway
+            return deltaY < 0 || mScrollableViewHelper.canScrollVertically(mScrollableView, -1);
         }
 
         private boolean isViewUnder(View view, float screenX, float screenY, int[] coordBuf) {
@@ -1256,15 +3104,40 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
             return SlidingUpPanelLayout.this.computePanelTopPosition(slideOffset);
         }
 
+        @Override
+        public float computeSlideOffset(int panelTop) {
+            return SlidingUpPanelLayout.this.computeSlideOffset(panelTop);
+        }
+
+        @Override
+        public void onTouchEventConsumed(long eventTime) {
+            if (mMetrics != null) {
+                mMetrics.onTouchEventConsumed(eventTime);
+            }
+        }
+
         @Override
         public void onViewPositionChanged(float slideOffset) {
-            onPanelDragged(mSlideableView.getTop(), slideOffset);
+            if (mMetrics != null) {
+                mMetrics.onSlideUpdate();
+            }
+            onPanelDragged(getPanelTop(), slideOffset);
             invalidate();
+            if (mStrictModePolicy != null) {
+                checkInvariants();
+            }
         }
 
         @Override
-        public void onDragStarted() {
-            setAllChildrenVisible();
+        public void onDragStarted(@NonNull PanelStateEvent.Source source) {
+            mGestureSource = source;
+            if (mMetrics != null) {
+                mMetrics.onGestureStarted();
+            }
+            if (mGestureTraceCookie == -1) {
+                mGestureTraceCookie = PanelTrace.beginGesture();
+            }
+            showObscuredView();
             if (mSlideState != PanelState.DRAGGING) {
                 mLastNotDraggingSlideState = mSlideState;
             }
@@ -1273,31 +3146,67 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
         @Override
         public float calculateSnapPoint(float slideOffset, boolean flingUp, boolean flingDown) {
-            if (flingUp) {
-                return slideOffset > mAnchorPoint ? 1.0f : mAnchorPoint;
-            } else if (flingDown) {
-                return slideOffset < mAnchorPoint ? 0.0f : mAnchorPoint;
-            } else {
-                float anchorDistance = Math.abs(slideOffset - mAnchorPoint);
-                float expandedDistance = 1.0f - slideOffset;
-                return slideOffset < anchorDistance ? 0.0f : anchorDistance < expandedDistance ? mAnchorPoint : 1.0f;
+            return PanelGeometry.calculateSnapPoint(slideOffset, mAnchorPoint, flingUp, flingDown);
+        }
+
+        @Override
+        public void onSnapStarted(float targetOffset, long durationMs) {
+            PanelState targetState = PanelGeometry.getSettledState(targetOffset);
+            for (PanelSettleListener listener : mPanelSettleListeners) {
+                listener.onPanelWillSettle(targetState, targetOffset, durationMs);
+            }
+        }
+
+        @Override
+        public void onTranslationSnapStarted(float targetOffset, long durationMs, @NonNull Interpolator interpolator) {
+            // the footer and the floating views are not offset during the snap, they follow the
+            // panel with the same animation
+            if (mStickyFooter != null) {
+                animateTranslationTo(mStickyFooter, computeFooterTopPosition(targetOffset), durationMs, interpolator);
+            }
+            final int panelTop = computePanelTopPosition(targetOffset);
+            for (int i = 0, count = mFloatingViews.size(); i < count; i++) {
+                View floatingView = mFloatingViews.get(i);
+                animateTranslationTo(floatingView, computeFloatingViewTop(floatingView, panelTop), durationMs, interpolator);
+            }
+        }
+
+        private void animateTranslationTo(View view, int top, long durationMs, Interpolator interpolator) {
+            ViewCompat.animate(view)
+                    .translationY(top - view.getTop())
+                    .setDuration(durationMs)
+                    .setInterpolator(interpolator)
+                    .start();
+        }
+
+        @Override
+        public void onTranslationSnapEnded() {
+            // the views are offset to their positions for the new slide offset right after this
+            if (mStickyFooter != null) {
+                ViewCompat.animate(mStickyFooter).cancel();
+                mStickyFooter.setTranslationY(0);
+            }
+            for (int i = 0, count = mFloatingViews.size(); i < count; i++) {
+                View floatingView = mFloatingViews.get(i);
+                ViewCompat.animate(floatingView).cancel();
+                floatingView.setTranslationY(0);
             }
         }
 
         @Override
         public void onViewSettled(float slideOffset) {
+            PanelTrace.endGesture(mGestureTraceCookie);
+            mGestureTraceCookie = -1;
+            finishGestureMetrics();
             applyParallaxForCurrentSlideOffset();
 
-            if (isFloatEqual(slideOffset, 1)) {
-                updateObscuredViewVisibility();
-                setPanelStateInternal(PanelState.EXPANDED);
-            } else if (isFloatEqual(slideOffset, 0)) {
-                setPanelStateInternal(PanelState.COLLAPSED);
-            } else if (isFloatEqual(slideOffset, -1)) {
-                setPanelStateInternal(PanelState.HIDDEN);
-            } else {
+            PanelState settledState = PanelGeometry.getSettledState(slideOffset);
+            if (settledState == PanelState.EXPANDED || settledState == PanelState.ANCHORED) {
                 updateObscuredViewVisibility();
-                setPanelStateInternal(PanelState.ANCHORED);
+            }
+            setPanelStateInternal(settledState);
+            if (mStrictModePolicy != null) {
+                checkInvariants();
             }
         }
 
@@ -1314,16 +3223,52 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
     }
 
     private boolean isFloatEqual(float value, float expected) {
-        return Math.abs(value - expected) < 0.000001;
+        return PanelGeometry.isFloatEqual(value, expected);
     }
 
     public static class LayoutParams extends ViewGroup.MarginLayoutParams {
         private static final int[] ATTRS = new int[]{
+                android.R.attr.layout_gravity,
                 android.R.attr.layout_weight
         };
 
         public float weight = 0;
 
+        /**
+         * The role of the child within the layout
+         */
+        @NonNull
+        public ChildRole role = ChildRole.AUTO;
+
+        /**
+         * Horizontal gravity for views with the role {@link ChildRole#FLOATING_ABOVE_PANEL} or
+         * {@link ChildRole#OVERLAY}
+         */
+        public int gravity = Gravity.NO_GRAVITY;
+
+        /**
+         * Collapsed height of a {@link ChildRole#STACKED_PANEL} in pixels, -1 for the default
+         */
+        public int panelHeight = -1;
+
+        /**
+         * Anchor point of a {@link ChildRole#STACKED_PANEL}
+         */
+        public float anchorPoint = 1.0f;
+
+        /**
+         * Initial state of a {@link ChildRole#STACKED_PANEL}
+         */
+        @NonNull
+        public PanelState initialState = PanelState.COLLAPSED;
+
+        /**
+         * The id of the view that drags a {@link ChildRole#STACKED_PANEL}, {@link View#NO_ID}
+         * to drag the whole panel
+         */
+        @IdRes
+        public int dragViewId = View.NO_ID;
+
         public LayoutParams() {
             super(MATCH_PARENT, MATCH_PARENT);
         }
@@ -1347,6 +3292,13 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
         public LayoutParams(LayoutParams source) {
             super(source);
+            this.weight = source.weight;
+            this.role = source.role;
+            this.gravity = source.gravity;
+            this.panelHeight = source.panelHeight;
+            this.anchorPoint = source.anchorPoint;
+            this.initialState = source.initialState;
+            this.dragViewId = source.dragViewId;
         }
 
         public LayoutParams(Context c, AttributeSet attrs) {
@@ -1354,10 +3306,27 @@ public class SlidingUpPanelLayout extends ViewGroup implements NestedScrollingPa
 
             final TypedArray ta = c.obtainStyledAttributes(attrs, ATTRS);
             if (ta != null) {
-                this.weight = ta.getFloat(0, 0);
+                this.gravity = ta.getInt(0, Gravity.NO_GRAVITY);
+                this.weight = ta.getFloat(1, 0);
                 ta.recycle();
             }
 
+            final TypedArray roleTa = c.obtainStyledAttributes(attrs, R.styleable.SlidingUpPanelLayout_Layout);
+            if (roleTa != null) {
+                this.role = ChildRole.values()[roleTa.getInt(R.styleable.SlidingUpPanelLayout_Layout_layout_hafasPanelRole, ChildRole.AUTO.ordinal())];
+                TypedValue value = new TypedValue();
+                roleTa.getValue(R.styleable.SlidingUpPanelLayout_Layout_hafasPanelHeight, value);
+                if (TypedValue.TYPE_DIMENSION == value.type) {
+                    this.panelHeight = roleTa.getDimensionPixelSize(R.styleable.SlidingUpPanelLayout_Layout_hafasPanelHeight, -1);
+                } else if (TypedValue.TYPE_INT_DEC == value.type) {
+                    throw new IllegalStateException("Stacked panels do not support an automatic panel height");
+                }
+                this.anchorPoint = roleTa.getFloat(R.styleable.SlidingUpPanelLayout_Layout_hafasAnchorPoint, 1.0f);
+                this.initialState = PanelState.values()[roleTa.getInt(R.styleable.SlidingUpPanelLayout_Layout_hafasInitialState, PanelState.COLLAPSED.ordinal())];
+                this.dragViewId = roleTa.getResourceId(R.styleable.SlidingUpPanelLayout_Layout_hafasDragView, View.NO_ID);
+                roleTa.recycle();
+            }
+
 
         }
     }
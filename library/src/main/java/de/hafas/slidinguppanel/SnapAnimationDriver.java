@@ -0,0 +1,159 @@
+package de.hafas.slidinguppanel;
+
+import android.animation.ValueAnimator;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.view.ViewCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives the snap animations of all panels of a {@link SlidingUpPanelLayout} from a single frame
+ * callback. The animators are never started, the driver advances their play time once per frame,
+ * so all panels move in the same frame and the layout posts one callback per frame regardless of
+ * how many panels snap.
+ * <p>
+ * In manual mode the frames are only advanced by {@link #advance(long)}, which lets tests step
+ * through snaps deterministically.
+ */
+final class SnapAnimationDriver {
+    private final View host;
+    private final List<Entry> entries = new ArrayList<>();
+    /**
+     * Reused snapshot of the entries, ending an animation may schedule a new one
+     */
+    private Entry[] frameEntries = new Entry[2];
+
+    private boolean manual = false;
+    private boolean framePosted = false;
+    private long lastFrameTime;
+
+    private final Runnable frameCallback = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+
+    SnapAnimationDriver(@NonNull View host) {
+        this.host = host;
+    }
+
+    /**
+     * @return True, if frames are only advanced by {@link #advance(long)}
+     */
+    boolean isManual() {
+        return manual;
+    }
+
+    /**
+     * Switches between system frames and manual frames. Running animations continue from their
+     * current play time.
+     */
+    void setManual(boolean manual) {
+        this.manual = manual;
+        if (!manual && !entries.isEmpty()) {
+            postFrame();
+        }
+    }
+
+    /**
+     * @return True, if no animation is running
+     */
+    boolean isIdle() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Runs the animator from its start until it ended. The animator must not be started.
+     */
+    void schedule(@NonNull ValueAnimator animator) {
+        entries.add(new Entry(animator));
+        if (!manual) {
+            postFrame();
+        }
+    }
+
+    void unschedule(@NonNull ValueAnimator animator) {
+        for (int i = 0, count = entries.size(); i < count; i++) {
+            if (entries.get(i).animator == animator) {
+                entries.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Advances all running animations. Animations that reach their end are ended, which settles
+     * their panels.
+     *
+     * @param deltaMs The time since the last frame in milliseconds
+     */
+    void advance(long deltaMs) {
+        final int count = entries.size();
+        if (frameEntries.length < count) {
+            frameEntries = new Entry[count];
+        }
+        entries.toArray(frameEntries);
+        for (int i = 0; i < count; i++) {
+            Entry entry = frameEntries[i];
+            frameEntries[i] = null;
+            if (!entries.contains(entry)) {
+                // cancelled during this frame
+                continue;
+            }
+            entry.playTime += deltaMs;
+            if (entry.playTime >= entry.animator.getDuration()) {
+                entries.remove(entry);
+                entry.animator.end();
+            } else {
+                entry.animator.setCurrentPlayTime(entry.playTime);
+            }
+        }
+    }
+
+    private void postFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            lastFrameTime = SystemClock.uptimeMillis();
+            ViewCompat.postOnAnimation(host, frameCallback);
+        }
+    }
+
+    private void onFrame() {
+        framePosted = false;
+        if (manual || entries.isEmpty()) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        final long deltaMs = now - lastFrameTime;
+        final float durationScale = getDurationScale();
+        // like the system animators, animations end at once if they are disabled
+        advance(durationScale > 0 ? (long) (deltaMs / durationScale) : Long.MAX_VALUE / 2);
+        if (!manual && !entries.isEmpty()) {
+            framePosted = true;
+            lastFrameTime = now;
+            ViewCompat.postOnAnimation(host, frameCallback);
+        }
+    }
+
+    private static float getDurationScale() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return ValueAnimator.getDurationScale();
+        }
+        return 1f;
+    }
+
+    private static final class Entry {
+        final ValueAnimator animator;
+        long playTime = 0;
+
+        Entry(@NonNull ValueAnimator animator) {
+            this.animator = animator;
+        }
+    }
+}
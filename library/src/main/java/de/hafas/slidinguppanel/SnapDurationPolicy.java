@@ -0,0 +1,65 @@
+package de.hafas.slidinguppanel;
+
+/**
+ * Determines how long the panel takes to snap to its destination after a drag or to slide to a
+ * new state.
+ *
+ * @see SlidingUpPanelLayout#setSnapDurationPolicy(SnapDurationPolicy)
+ */
+public interface SnapDurationPolicy {
+    /**
+     * @param distance  The distance to the destination in pixels
+     * @param velocity  The velocity of the released panel towards the destination in pixels per
+     *                  second. It is 0 if the panel was not flung, e.g. for
+     *                  {@link SlidingUpPanelLayout#setPanelState(SlidingUpPanelLayout.PanelState)},
+     *                  and negative if the panel was flung away from the destination.
+     * @param dragRange The distance between the collapsed and the expanded panel in pixels
+     * @return The duration of the animation in milliseconds
+     */
+    long getSnapDuration(int distance, float velocity, int dragRange);
+
+    /**
+     * Default policy: the duration grows with the square root of the distance, so short
+     * corrections are quick, and a fling shortens it so the panel continues with about the
+     * release velocity. The duration is kept between a minimum and a maximum.
+     */
+    class Default implements SnapDurationPolicy {
+        public static final long DEFAULT_MIN_DURATION_MS = 120;
+        public static final long DEFAULT_MAX_DURATION_MS = 400;
+        /**
+         * Initial slope of the default snap interpolator, which starts five times faster than a
+         * linear animation
+         */
+        private static final float INITIAL_SLOPE = 5f;
+
+        private final long minDuration;
+        private final long maxDuration;
+
+        public Default() {
+            this(DEFAULT_MIN_DURATION_MS, DEFAULT_MAX_DURATION_MS);
+        }
+
+        /**
+         * @param minDuration Minimum duration in milliseconds
+         * @param maxDuration Maximum duration in milliseconds, used for a distance of the full
+         *                    drag range without a fling
+         */
+        public Default(long minDuration, long maxDuration) {
+            if (minDuration < 0 || maxDuration < minDuration) {
+                throw new IllegalArgumentException("Invalid duration range " + minDuration + " - " + maxDuration);
+            }
+            this.minDuration = minDuration;
+            this.maxDuration = maxDuration;
+        }
+
+        @Override
+        public long getSnapDuration(int distance, float velocity, int dragRange) {
+            float relativeDistance = dragRange > 0 ? Math.min(1f, (float) distance / dragRange) : 1f;
+            long duration = (long) (maxDuration * Math.sqrt(relativeDistance));
+            if (velocity > 0) {
+                duration = Math.min(duration, (long) (1000 * INITIAL_SLOPE * distance / velocity));
+            }
+            return Math.max(minDuration, Math.min(maxDuration, duration));
+        }
+    }
+}
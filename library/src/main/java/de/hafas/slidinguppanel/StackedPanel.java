@@ -0,0 +1,606 @@
+package de.hafas.slidinguppanel;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+import androidx.annotation.FloatRange;
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelSettleListener;
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelSlideListener;
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+/**
+ * A child of a {@link SlidingUpPanelLayout} with the role
+ * {@link SlidingUpPanelLayout.ChildRole#STACKED_PANEL}. A layout can contain any number of
+ * stacked panels next to its main panel, e.g. a sheet with the details of a stop above a sheet
+ * with a route. Each of them has its own state, panel height, anchor point and listeners and
+ * slides independently, while all panels are measured and laid out in the passes of the layout
+ * and share its hit test, its snap animation driver, its snap duration policy and its fling velocity.
+ * Their listeners are notified within the listener dispatch of the layout, so requests made from
+ * any listener are deferred like those to the main panel, and the strict mode policy and the
+ * metrics of the layout cover them as well.
+ * <p>
+ * A stacked panel covers the main view and the panels declared before it. Parallax, fading, the
+ * sticky footer, an automatic panel height and the input method inset only apply to the main
+ * panel. Scrollable content of a stacked panel moves it by nested scrolling.
+ *
+ * @see SlidingUpPanelLayout#getStackedPanel(View)
+ */
+public final class StackedPanel {
+    private static final int DEFAULT_PANEL_HEIGHT = 68; // dp;
+    private static final float DEFAULT_ANCHOR_POINT = 1.0f; // In relative %
+    private static final int NO_PENDING_PANEL_HEIGHT = Integer.MIN_VALUE;
+
+    @NonNull
+    private final SlidingUpPanelLayout layout;
+    @NonNull
+    private final View view;
+    @NonNull
+    private final ViewSlideHelper slideHelper;
+    private final List<PanelSlideListener> panelSlideListeners = new CopyOnWriteArrayList<>();
+    private final List<PanelSettleListener> panelSettleListeners = new CopyOnWriteArrayList<>();
+    private final List<PanelStateObserverDispatcher> panelStateObservers = new CopyOnWriteArrayList<>();
+
+    private int panelHeight;
+    private float anchorPoint;
+    @IdRes
+    private int dragViewId;
+    @NonNull
+    private PanelState state;
+    @NonNull
+    private PanelState lastNotDraggingState;
+    private int slideRange;
+    private boolean firstLayout = true;
+    @NonNull
+    private PanelStateEvent.Source gestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+    private int gestureTraceCookie = -1;
+
+    @Nullable
+    private PanelKeyframes keyframes;
+    /**
+     * Resolved target views of {@link #keyframes}
+     */
+    @Nullable
+    private View[] keyframeTargets;
+
+    /**
+     * Latest state request deferred during a listener dispatch of the layout, null if there is none
+     */
+    @Nullable
+    private PanelState pendingState;
+    private int pendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
+
+    StackedPanel(@NonNull SlidingUpPanelLayout layout, @NonNull View view, @Nullable Interpolator snapInterpolator) {
+        this.layout = layout;
+        this.view = view;
+        SlidingUpPanelLayout.LayoutParams lp = (SlidingUpPanelLayout.LayoutParams) view.getLayoutParams();
+        panelHeight = lp.panelHeight != -1
+                ? lp.panelHeight
+                : (int) (DEFAULT_PANEL_HEIGHT * layout.getResources().getDisplayMetrics().density + 0.5f);
+        anchorPoint = lp.anchorPoint > 0 && lp.anchorPoint <= 1 ? lp.anchorPoint : DEFAULT_ANCHOR_POINT;
+        dragViewId = lp.dragViewId;
+        state = lp.initialState;
+        lastNotDraggingState = state;
+        slideHelper = new ViewSlideHelper(layout.getContext(), new SlideCallback(), snapInterpolator);
+        slideHelper.setAnimationDriver(layout.getSnapAnimationDriver());
+    }
+
+    /**
+     * @return The child of the layout that is moved by this panel
+     */
+    @NonNull
+    public View getView() {
+        return view;
+    }
+
+    public void addPanelSlideListener(@NonNull PanelSlideListener listener) {
+        panelSlideListeners.add(listener);
+    }
+
+    public void removePanelSlideListener(@NonNull PanelSlideListener listener) {
+        panelSlideListeners.remove(listener);
+    }
+
+    /**
+     * @see SlidingUpPanelLayout#addPanelSettleListener(PanelSettleListener)
+     */
+    public void addPanelSettleListener(@NonNull PanelSettleListener listener) {
+        panelSettleListeners.add(listener);
+    }
+
+    public void removePanelSettleListener(@NonNull PanelSettleListener listener) {
+        panelSettleListeners.remove(listener);
+    }
+
+    /**
+     * @see SlidingUpPanelLayout#addPanelStateObserver(Executor, PanelStateObserver)
+     */
+    public void addPanelStateObserver(@NonNull Executor executor, @NonNull PanelStateObserver observer) {
+        panelStateObservers.add(new PanelStateObserverDispatcher(executor, observer));
+    }
+
+    public void removePanelStateObserver(@NonNull PanelStateObserver observer) {
+        for (PanelStateObserverDispatcher dispatcher : panelStateObservers) {
+            if (dispatcher.getObserver() == observer) {
+                panelStateObservers.remove(dispatcher);
+            }
+        }
+    }
+
+    /**
+     * @see SlidingUpPanelLayout#setPanelKeyframes(PanelKeyframes)
+     */
+    public void setPanelKeyframes(@Nullable PanelKeyframes keyframes) {
+        this.keyframes = keyframes;
+        keyframeTargets = keyframes != null ? new View[keyframes.size()] : null;
+        if (!firstLayout) {
+            applyKeyframesForCurrentSlideOffset();
+        }
+    }
+
+    @Nullable
+    public PanelKeyframes getPanelKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * @return The current state of the panel
+     */
+    @NonNull
+    public PanelState getPanelState() {
+        return state;
+    }
+
+    /**
+     * Moves the panel to the given state, animated if the panel has been laid out already.
+     * <p>
+     * Like {@link SlidingUpPanelLayout#setPanelState(PanelState)}, requests made from a listener
+     * of any panel of the layout are deferred, and a drag in progress is ended by the request.
+     *
+     * @param state The new state, must not be {@link PanelState#DRAGGING}
+     */
+    public void setPanelState(@NonNull PanelState state) {
+        if (state == PanelState.DRAGGING) {
+            throw new IllegalArgumentException("Panel state cannot be null or DRAGGING.");
+        }
+        if (layout.isDispatching()) {
+            pendingState = state;
+            return;
+        }
+        pendingState = null;
+        if (state == this.state) {
+            return;
+        }
+        if (firstLayout) {
+            gestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+            lastNotDraggingState = state;
+            setPanelStateInternal(state);
+            view.requestLayout();
+        } else {
+            slideHelper.slideTo(getSlideOffsetForState(state));
+        }
+    }
+
+    /**
+     * @return The current slide offset of the panel, from -1 (hidden) over 0 (collapsed) to 1
+     * (expanded)
+     */
+    public float getSlideOffset() {
+        return firstLayout ? getSlideOffsetForState(state) : slideHelper.getSlideOffset();
+    }
+
+    /**
+     * @param panelHeight The visible height of the collapsed panel in pixels
+     */
+    public void setPanelHeight(int panelHeight) {
+        if (layout.isDispatching()) {
+            pendingPanelHeight = panelHeight;
+            return;
+        }
+        pendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
+        this.panelHeight = panelHeight;
+        view.requestLayout();
+    }
+
+    public int getPanelHeight() {
+        return panelHeight;
+    }
+
+    /**
+     * @param anchorPoint A value between 0 and 1, determining the position of the anchor point
+     *                    starting from the top of the layout.
+     */
+    public void setAnchorPoint(@FloatRange(from = 0, to = 1, fromInclusive = false) float anchorPoint) {
+        if (anchorPoint > 0 && anchorPoint <= 1) {
+            this.anchorPoint = anchorPoint;
+            view.requestLayout();
+        }
+    }
+
+    public float getAnchorPoint() {
+        return anchorPoint;
+    }
+
+    /**
+     * @param dragViewId The id of the view within the panel that can be used to drag it, or
+     *                   {@link View#NO_ID} to drag the whole panel
+     */
+    public void setDragViewId(@IdRes int dragViewId) {
+        this.dragViewId = dragViewId;
+    }
+
+    void setNestedScrollingEnabled(boolean enabled) {
+        slideHelper.setNestedScrollingEnabled(enabled);
+    }
+
+    void setSnapDurationPolicy(@NonNull SnapDurationPolicy policy) {
+        slideHelper.setSnapDurationPolicy(policy);
+    }
+
+    /**
+     * Puts a panel that is not visible anymore into the hidden state, like the main panel. Must be
+     * called before the panel is laid out.
+     */
+    void hideIfNotVisible() {
+        if (view.getVisibility() != View.VISIBLE && state != PanelState.HIDDEN) {
+            // the panel is positioned for the hidden state in this layout
+            slideHelper.cancelMovement();
+            cancelGesture();
+            firstLayout = true;
+            gestureSource = PanelStateEvent.Source.PROGRAMMATIC;
+            setPanelStateInternal(PanelState.HIDDEN);
+        }
+    }
+
+    boolean hasPendingRequests() {
+        return pendingState != null || pendingPanelHeight != NO_PENDING_PANEL_HEIGHT;
+    }
+
+    /**
+     * Applies the requests deferred during a listener dispatch, the height before the state.
+     */
+    void applyPendingRequests() {
+        final int height = pendingPanelHeight;
+        final PanelState newState = pendingState;
+        pendingPanelHeight = NO_PENDING_PANEL_HEIGHT;
+        pendingState = null;
+        if (height != NO_PENDING_PANEL_HEIGHT) {
+            setPanelHeight(height);
+        }
+        if (newState != null) {
+            setPanelState(newState);
+        }
+    }
+
+    void applyKeyframesForCurrentSlideOffset() {
+        if (keyframes != null) {
+            layout.applyKeyframes(keyframes, keyframeTargets, getSlideOffset());
+        }
+    }
+
+    /**
+     * @return True, if the panel is moving between collapsed, anchored and expanded, which is
+     * when the strict mode of the layout reports layout requests and redraws
+     */
+    boolean isMovingBetweenRestingStates() {
+        return state == PanelState.DRAGGING
+                && lastNotDraggingState != PanelState.HIDDEN
+                && slideHelper.getSlideOffset() >= 0;
+    }
+
+    /**
+     * @return The violated invariant or null if the panel is consistent or was not laid out yet
+     * @see SlidingUpPanelLayout#findInvariantViolation()
+     */
+    @Nullable
+    PanelStrictMode.Violation findInvariantViolation() {
+        if (firstLayout) {
+            return null;
+        }
+        final float slideOffset = slideHelper.getSlideOffset();
+        if (!(slideOffset >= -1f && slideOffset <= 1f)) {
+            return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                    "stacked panel slide offset " + slideOffset + " out of range");
+        }
+        if (state != PanelState.DRAGGING) {
+            final float snapTarget = slideHelper.getSnapTarget();
+            if (!Float.isNaN(snapTarget)) {
+                return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                        "stacked panel snap to " + snapTarget + " running in state " + state);
+            }
+            if (!PanelGeometry.isFloatEqual(slideOffset, getSlideOffsetForState(state))) {
+                return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                        "stacked panel slide offset " + slideOffset + " does not match state " + state);
+            }
+        }
+        final int expectedTop = computePanelTop(slideOffset);
+        if (view.getTop() != expectedTop) {
+            return new PanelStrictMode.Violation(PanelStrictMode.ViolationType.INVARIANT,
+                    "stacked panel top " + view.getTop() + " does not match " + expectedTop + " of slide offset " + slideOffset);
+        }
+        return null;
+    }
+
+    /**
+     * Must be called after the panel view was measured.
+     */
+    void onMeasured() {
+        slideRange = view.getMeasuredHeight() - panelHeight;
+    }
+
+    /**
+     * @return The top position of the panel in the current layout pass. The first layout places
+     * the panel according to its state.
+     */
+    int computeLayoutTop() {
+        if (firstLayout) {
+            firstLayout = false;
+            slideHelper.setSlideOffset(getSlideOffsetForState(state));
+        } else if (state == PanelState.ANCHORED) {
+            // the anchor point can only be reached if the panel has a slide range
+            float anchoredOffset = getSlideOffsetForState(PanelState.ANCHORED);
+            if (!PanelGeometry.isFloatEqual(slideHelper.getSlideOffset(), anchoredOffset)) {
+                slideHelper.setSlideOffset(anchoredOffset);
+            }
+        }
+        return computePanelTop(slideHelper.getSlideOffset());
+    }
+
+    /**
+     * Positions the panel for its state again in the next layout, e.g. after the layout was
+     * attached to a window.
+     */
+    void resetLayoutPosition() {
+        firstLayout = true;
+    }
+
+    /**
+     * Ends a drag or snap at once, like {@link ViewSlideHelper#finishMovement(boolean)}.
+     */
+    void finishMovement() {
+        if (!firstLayout) {
+            slideHelper.finishMovement(state == PanelState.DRAGGING);
+        }
+    }
+
+    /**
+     * @return The state to save, a moving panel is saved in the state it moved from
+     */
+    @NonNull
+    PanelState getRestingState() {
+        return state != PanelState.DRAGGING ? state : lastNotDraggingState;
+    }
+
+    void restoreState(@NonNull PanelState restoredState) {
+        state = restoredState;
+        lastNotDraggingState = restoredState;
+        firstLayout = true;
+    }
+
+    boolean onInterceptTouchEvent(@NonNull MotionEvent event) {
+        return view.isEnabled() && slideHelper.onInterceptTouchEvent(event);
+    }
+
+    boolean onTouchEvent(@NonNull MotionEvent event) {
+        return view.isEnabled() && slideHelper.onTouchEvent(event);
+    }
+
+    boolean onStartNestedScroll(@NonNull View child, @NonNull View target, int axes, int type) {
+        return slideHelper.onStartNestedScroll(child, target, axes, type);
+    }
+
+    void onNestedScrollAccepted(@NonNull View child, @NonNull View target, int axes, int type) {
+        slideHelper.onNestedScrollAccepted(child, target, axes, type);
+    }
+
+    void onNestedPreScroll(@NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
+        slideHelper.onNestedPreScroll(target, dx, dy, consumed, type);
+    }
+
+    void onNestedScroll(@NonNull View target, int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed, int type, @NonNull int[] consumed) {
+        slideHelper.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type, consumed);
+    }
+
+    void onStopNestedScroll(@NonNull View target, int type) {
+        slideHelper.onStopNestedScroll(target, type);
+    }
+
+    private int getBottom() {
+        return layout.getMeasuredHeight() - layout.getPaddingBottom();
+    }
+
+    private int computePanelTop(float slideOffset) {
+        return PanelGeometry.computePanelTop(slideOffset, getBottom(), panelHeight, slideRange);
+    }
+
+    private float getSlideOffsetForState(@NonNull PanelState state) {
+        switch (state) {
+            case EXPANDED:
+                return 1.0f;
+            case ANCHORED:
+                return slideRange > 0 ? anchorPoint : 0.f;
+            case HIDDEN:
+                return -1.0f;
+            default:
+                return 0.f;
+        }
+    }
+
+    private void setPanelStateInternal(@NonNull PanelState newState) {
+        if (state == newState) {
+            return;
+        }
+        // like for the main panel, the transition table is a diagnostic
+        if (!firstLayout && !PanelStateTransitions.isValid(state, newState)) {
+            layout.reportInvalidTransition(state, newState);
+        }
+        PanelState oldState = state;
+        state = newState;
+        PanelTrace.beginSection(PanelTrace.DISPATCH_STATE_CHANGED);
+        layout.beginDispatch();
+        try {
+            for (PanelSlideListener listener : panelSlideListeners) {
+                listener.onPanelStateChanged(view, oldState, newState);
+            }
+            if (!panelStateObservers.isEmpty()) {
+                PanelStateEvent event = new PanelStateEvent(oldState, newState, getSlideOffset(),
+                        SystemClock.uptimeMillis(), gestureSource);
+                for (PanelStateObserverDispatcher dispatcher : panelStateObservers) {
+                    dispatcher.enqueue(event);
+                }
+            }
+        } finally {
+            layout.endDispatch();
+            PanelTrace.endSection();
+        }
+    }
+
+    private void dispatchOnPanelSlide(float slideOffset) {
+        PanelTrace.beginSection(PanelTrace.DISPATCH_SLIDE);
+        final PanelMetrics metrics = layout.getPanelMetrics();
+        final long start = metrics != null ? System.nanoTime() : 0;
+        layout.beginDispatch();
+        try {
+            for (PanelSlideListener listener : panelSlideListeners) {
+                listener.onPanelSlide(view, slideOffset);
+            }
+        } finally {
+            layout.endDispatch();
+            PanelTrace.endSection();
+        }
+        if (metrics != null) {
+            metrics.onListenerDispatch(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Ends the trace slice and the metrics of a gesture that ends without the panel settling.
+     */
+    private void cancelGesture() {
+        PanelTrace.endGesture(gestureTraceCookie);
+        gestureTraceCookie = -1;
+        final PanelMetrics metrics = layout.getPanelMetrics();
+        if (metrics != null) {
+            metrics.onGestureCancelled();
+        }
+    }
+
+    private class SlideCallback implements ViewSlideHelper.Callback {
+        private final int[] tmpLocation = new int[2];
+
+        @Override
+        public View getSlideableView() {
+            return view;
+        }
+
+        @Override
+        public int getViewVerticalDragRange() {
+            return slideRange;
+        }
+
+        @Override
+        public boolean isFling(float velocity) {
+            return Math.abs(velocity) > layout.getMinFlingVelocity();
+        }
+
+        @Override
+        public boolean isDraggable(float screenX, float screenY) {
+            View dragView = dragViewId != View.NO_ID ? view.findViewById(dragViewId) : null;
+            View target = dragView != null ? dragView : view;
+            target.getLocationOnScreen(tmpLocation);
+            return screenX >= tmpLocation[0] && screenX < tmpLocation[0] + target.getWidth() &&
+                    screenY >= tmpLocation[1] && screenY < tmpLocation[1] + target.getHeight();
+        }
+
+        @Override
+        public boolean isScrollableViewDrag(float screenX, float screenY, float deltaY) {
+            // scrollable children of a stacked panel are expected to support nested scrolling
+            return false;
+        }
+
+        @Override
+        public void onDragStarted(@NonNull PanelStateEvent.Source source) {
+            gestureSource = source;
+            final PanelMetrics metrics = layout.getPanelMetrics();
+            if (metrics != null) {
+                metrics.onGestureStarted();
+            }
+            if (gestureTraceCookie == -1) {
+                gestureTraceCookie = PanelTrace.beginGesture();
+            }
+            if (state != PanelState.DRAGGING) {
+                lastNotDraggingState = state;
+            }
+            setPanelStateInternal(PanelState.DRAGGING);
+        }
+
+        @Override
+        public int computePanelTopPosition(float slideOffset) {
+            return computePanelTop(slideOffset);
+        }
+
+        @Override
+        public float computeSlideOffset(int panelTop) {
+            return PanelGeometry.computeSlideOffset(panelTop, getBottom(), panelHeight, slideRange);
+        }
+
+        @Override
+        public void onTouchEventConsumed(long eventTime) {
+            final PanelMetrics metrics = layout.getPanelMetrics();
+            if (metrics != null) {
+                metrics.onTouchEventConsumed(eventTime);
+            }
+        }
+
+        @Override
+        public void onViewPositionChanged(float slideOffset) {
+            final PanelMetrics metrics = layout.getPanelMetrics();
+            if (metrics != null) {
+                metrics.onSlideUpdate();
+            }
+            applyKeyframesForCurrentSlideOffset();
+            dispatchOnPanelSlide(slideOffset);
+            layout.checkInvariants();
+        }
+
+        @Override
+        public float calculateSnapPoint(float slideOffset, boolean flingUp, boolean flingDown) {
+            return PanelGeometry.calculateSnapPoint(slideOffset, anchorPoint, flingUp, flingDown);
+        }
+
+        @Override
+        public void onSnapStarted(float targetOffset, long durationMs) {
+            PanelState targetState = PanelGeometry.getSettledState(targetOffset);
+            for (PanelSettleListener listener : panelSettleListeners) {
+                listener.onPanelWillSettle(targetState, targetOffset, durationMs);
+            }
+        }
+
+        @Override
+        public void onTranslationSnapStarted(float targetOffset, long durationMs, @NonNull Interpolator interpolator) {
+            // stacked panels are always moved by their position
+        }
+
+        @Override
+        public void onTranslationSnapEnded() {
+        }
+
+        @Override
+        public void onViewSettled(float slideOffset) {
+            PanelTrace.endGesture(gestureTraceCookie);
+            gestureTraceCookie = -1;
+            layout.finishGestureMetrics();
+            setPanelStateInternal(PanelGeometry.getSettledState(slideOffset));
+            layout.checkInvariants();
+        }
+    }
+}
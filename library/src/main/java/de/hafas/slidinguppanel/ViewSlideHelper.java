@@ -16,6 +16,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.math.MathUtils;
 import androidx.core.view.ViewCompat;
+import androidx.core.view.ViewPropertyAnimatorListenerAdapter;
 
 /**
  * Helper class that processes touch events and nested scrolling to calculate the slide offset of
@@ -27,6 +28,11 @@ import androidx.core.view.ViewCompat;
  * track the position during animation or dragging. This prevents race conditions with size changes.
  */
 class ViewSlideHelper {
+    /**
+     * Time constant in milliseconds of the decay of a caught snap velocity
+     */
+    private static final float CAUGHT_VELOCITY_DECAY_MS = 100f;
+
     @NonNull
     private final Callback callback;
     private final int touchSlop;
@@ -35,9 +41,46 @@ class ViewSlideHelper {
     private final Interpolator snapInterpolator;
     @Nullable
     private ValueAnimator snapAnimator;
+    /**
+     * If set, snap animations are driven by this driver, which is shared by the panels of a
+     * layout, instead of starting their animators on their own
+     */
+    @Nullable
+    private SnapAnimationDriver animationDriver;
 
     private boolean nestedScrollingEnabled = true;
 
+    @NonNull
+    private SnapDurationPolicy snapDurationPolicy = new SnapDurationPolicy.Default();
+
+    /**
+     * If true, the panel is moved by its translationY and snaps are run by a ViewPropertyAnimator
+     * instead of moving the panel with offsetTopAndBottom on every frame.
+     */
+    private boolean translationMode = false;
+    /**
+     * Destination of the running snap animation or {@link Float#NaN} if there is none.
+     */
+    private float snapTarget = Float.NaN;
+    /**
+     * Vertical velocity in pixels per second at the end of the last drag or nested scroll.
+     */
+    private float releaseVelocity;
+
+    /**
+     * Start offset, start time and duration of the running snap, used to compute its velocity
+     * when it gets caught by a touch.
+     */
+    private float snapStartOffset;
+    private long snapStartTime;
+    private long snapDuration;
+    /**
+     * Velocity in pixels per second of the snap that was caught by the current drag and the time
+     * it was caught at. It is added to the velocity of the drag, decaying over time.
+     */
+    private float caughtVelocity;
+    private long caughtTime;
+
     /**
      * How far the panel is offset from its expanded position.
      * range [-1, 0, 1] where -1 = hidden, 0 = collapsed, 1 = expanded.
@@ -45,7 +88,9 @@ class ViewSlideHelper {
     private float mSlideOffset = 0;
 
     private int trackedPointerId = MotionEvent.INVALID_POINTER_ID;
+    private long trackedDownTime;
     private PointF touchStart = new PointF();
+    private PointF rawTouchStart = new PointF();
     private PointF lastDragPoint = new PointF();
     private VelocityTracker velocityTracker = null;
     private boolean dragging = false;
@@ -68,6 +113,66 @@ class ViewSlideHelper {
         this.nestedScrollingEnabled = nestedScrollingEnabled;
     }
 
+    void setSnapDurationPolicy(@NonNull SnapDurationPolicy snapDurationPolicy) {
+        this.snapDurationPolicy = snapDurationPolicy;
+    }
+
+    boolean isTranslationMode() {
+        return translationMode;
+    }
+
+    void setTranslationMode(boolean translationMode) {
+        if (this.translationMode == translationMode) {
+            return;
+        }
+        cancelSnap();
+        int panelTop = getPanelTop();
+        this.translationMode = translationMode;
+        View slideableView = callback.getSlideableView();
+        if (slideableView != null) {
+            // keep the panel where it is, regardless of how it gets positioned from now on
+            slideableView.setTranslationY(0);
+            slideableView.offsetTopAndBottom(panelTop - slideableView.getTop());
+        }
+    }
+
+    /**
+     * @return The current visual top position of the panel, including its translation in
+     * translation mode.
+     */
+    int getPanelTop() {
+        View slideableView = callback.getSlideableView();
+        if (slideableView == null) {
+            return 0;
+        }
+        if (translationMode) {
+            return slideableView.getTop() + Math.round(slideableView.getTranslationY());
+        }
+        return slideableView.getTop();
+    }
+
+    /**
+     * @return True, if the panel is currently animated by its translation. Position dependent drawing
+     * of the parent is only updated after such an animation.
+     */
+    boolean isTranslationSnapRunning() {
+        return translationMode && !Float.isNaN(snapTarget) && snapAnimator == null;
+    }
+
+    /**
+     * @return The destination of the running snap animation or {@link Float#NaN} if there is none.
+     */
+    float getSnapTarget() {
+        return snapTarget;
+    }
+
+    /**
+     * @return The vertical velocity in pixels per second at the end of the last drag or nested scroll.
+     */
+    float getReleaseVelocity() {
+        return releaseVelocity;
+    }
+
     boolean onInterceptTouchEvent(MotionEvent event) {
         return processTouchEvent(event);
     }
@@ -96,7 +201,7 @@ class ViewSlideHelper {
         }
         // do not intercept any more touch events and let the child scroll
         stopTouchTracking();
-        callback.onDragStarted();
+        callback.onDragStarted(PanelStateEvent.Source.NESTED_SCROLL);
     }
 
     void onNestedPreScroll(@NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
@@ -135,80 +240,115 @@ class ViewSlideHelper {
             if (scrollDistance != 0 && now != scrollStartTime && consumedScrollDistance != 0) {
                 float scrollDurationS = (now - scrollStartTime) / 1000.0f;
                 float scrollVelocity = scrollDistance / scrollDurationS;
-                snapAnimator = createSnapAnimator(-scrollVelocity);
-                if (snapAnimator != null) {
-                    snapAnimator.start();
-                }
+                snap(-scrollVelocity);
             }
         }
     }
 
     private boolean processTouchEvent(MotionEvent event) {
-        switch (event.getActionMasked()) {
-            case MotionEvent.ACTION_DOWN:
-                if (callback.isDraggable(event.getRawX(), event.getRawY())) {
-                    trackedPointerId = event.getPointerId(0);
-                    touchStart.set(event.getX(), event.getY());
-                    velocityTracker = VelocityTracker.obtain();
-                    velocityTracker.addMovement(event);
-                }
-                return false;
-
-            case MotionEvent.ACTION_POINTER_UP:
-                if (event.getPointerId(event.getActionIndex()) != trackedPointerId) {
-                    return false;
-                }
-                // fall though
-            case MotionEvent.ACTION_UP:
-            case MotionEvent.ACTION_CANCEL:
-                // todo: technically speaking, cancel should snap the panel back to its starting position...
-                if (trackedPointerId == MotionEvent.INVALID_POINTER_ID) {
-                    // no drag in progress, ignore event
+        PanelTrace.beginSection(PanelTrace.PROCESS_TOUCH_EVENT);
+        try {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    if (trackedPointerId != MotionEvent.INVALID_POINTER_ID && event.getDownTime() == trackedDownTime) {
+                        // the DOWN event is delivered to onTouchEvent again after it was seen or
+                        // intercepted in onInterceptTouchEvent, the gesture is already tracked
+                        return dragging;
+                    }
+                    // a new gesture, forget one whose UP or CANCEL was never seen
+                    stopTouchTracking();
+                    dragging = false;
+                    if (callback.isDraggable(event.getRawX(), event.getRawY())) {
+                        trackedPointerId = event.getPointerId(0);
+                        trackedDownTime = event.getDownTime();
+                        touchStart.set(event.getX(), event.getY());
+                        rawTouchStart.set(event.getRawX(), event.getRawY());
+                        velocityTracker = VelocityTracker.obtain();
+                        velocityTracker.addMovement(event);
+                        caughtVelocity = 0;
+                        if (!Float.isNaN(snapTarget) && snapTarget >= 0 && mSlideOffset >= 0) {
+                            // catch the running snap: stop it where it is and continue with a
+                            // drag right away, without waiting for the touch slop. Snaps from or
+                            // to the hidden state are not caught, a drag can't reach it.
+                            caughtVelocity = getSnapVelocity();
+                            caughtTime = event.getEventTime();
+                            cancelSnap();
+                            dragging = true;
+                            callback.onDragStarted(PanelStateEvent.Source.TOUCH);
+                            lastDragPoint.set(event.getX(), event.getY());
+                            return true;
+                        }
+                    }
                     return false;
-                } else {
-                    boolean wasDragging = dragging;
-                    if (dragging) {
-                        velocityTracker.computeCurrentVelocity(1000);
-                        float flingVelocity = velocityTracker.getYVelocity(trackedPointerId);
-                        snapAnimator = createSnapAnimator(flingVelocity);
-                        if (snapAnimator != null) {
-                            snapAnimator.start();
+
+                case MotionEvent.ACTION_POINTER_UP:
+                    if (event.getPointerId(event.getActionIndex()) != trackedPointerId) {
+                        return false;
+                    }
+                    // fall though
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    // todo: technically speaking, cancel should snap the panel back to its starting position...
+                    if (trackedPointerId == MotionEvent.INVALID_POINTER_ID) {
+                        // no drag in progress, ignore event
+                        return false;
+                    } else {
+                        boolean wasDragging = dragging;
+                        if (dragging) {
+                            velocityTracker.computeCurrentVelocity(1000);
+                            float flingVelocity = velocityTracker.getYVelocity(trackedPointerId);
+                            if (caughtVelocity != 0) {
+                                // a caught snap keeps some momentum for short drags
+                                long caughtDuration = event.getEventTime() - caughtTime;
+                                flingVelocity += caughtVelocity * (float) Math.exp(-caughtDuration / CAUGHT_VELOCITY_DECAY_MS);
+                                caughtVelocity = 0;
+                            }
+                            snap(flingVelocity);
+                            dragging = false;
                         }
-                        dragging = false;
+                        stopTouchTracking();
+                        // only consume the UP event if the gesture had a dragging motion. We do not
+                        // want to steal normal clicks from our child views
+                        return wasDragging;
                     }
-                    stopTouchTracking();
-                    // only consume the UP event if the gesture had a dragging motion. We do not
-                    // want to steal normal clicks from our child views
-                    return wasDragging;
-                }
 
-            case MotionEvent.ACTION_MOVE: {
-                if (trackedPointerId == MotionEvent.INVALID_POINTER_ID) {
-                    // no drag in progress, ignore event
-                    return false;
-                }
-                velocityTracker.addMovement(event);
-
-                int trackedPointerIndex = event.findPointerIndex(trackedPointerId);
-                if (dragging) {
-                    float deltaYPixels = event.getY(trackedPointerIndex) - lastDragPoint.y;
-                    movePanelRelative(deltaYPixels);
-                    lastDragPoint.set(event.getX(trackedPointerIndex), event.getY(trackedPointerIndex));
-                    return true;
-                } else {
-                    float verticalDistance = Math.abs(event.getY(trackedPointerIndex) - touchStart.y);
-                    if (verticalDistance > touchSlop) {
-                        dragging = true;
-                        callback.onDragStarted();
+                case MotionEvent.ACTION_MOVE: {
+                    if (trackedPointerId == MotionEvent.INVALID_POINTER_ID) {
+                        // no drag in progress, ignore event
+                        return false;
+                    }
+                    velocityTracker.addMovement(event);
+
+                    int trackedPointerIndex = event.findPointerIndex(trackedPointerId);
+                    if (dragging) {
+                        float deltaYPixels = event.getY(trackedPointerIndex) - lastDragPoint.y;
+                        movePanelRelative(deltaYPixels);
+                        callback.onTouchEventConsumed(event.getEventTime());
                         lastDragPoint.set(event.getX(trackedPointerIndex), event.getY(trackedPointerIndex));
                         return true;
+                    } else {
+                        float deltaY = event.getY(trackedPointerIndex) - touchStart.y;
+                        if (Math.abs(deltaY) > touchSlop) {
+                            if (callback.isScrollableViewDrag(rawTouchStart.x, rawTouchStart.y, deltaY)) {
+                                // the gesture belongs to a scrollable child, which already
+                                // receives all events, so stop looking at it
+                                stopTouchTracking();
+                                return false;
+                            }
+                            dragging = true;
+                            callback.onDragStarted(PanelStateEvent.Source.TOUCH);
+                            lastDragPoint.set(event.getX(trackedPointerIndex), event.getY(trackedPointerIndex));
+                            return true;
+                        }
                     }
+                    return false;
                 }
-                return false;
-            }
 
-            default:
-                return false;
+                default:
+                    return false;
+            }
+        } finally {
+            PanelTrace.endSection();
         }
     }
 
@@ -216,18 +356,35 @@ class ViewSlideHelper {
         int dragRange = callback.getViewVerticalDragRange();
         float deltaOffset = dragRange > 0 ? -deltaYPixels / dragRange : 0;
         float newSlideOffset = MathUtils.clamp(mSlideOffset + deltaOffset, 0f, 1f);
-        int previousPosition = callback.getSlideableView().getTop();
+        int previousPosition = getPanelTop();
         setSlideOffset(newSlideOffset);
-        return callback.getSlideableView().getTop() - previousPosition;
+        return getPanelTop() - previousPosition;
     }
 
     void slideTo(float slideOffset) {
-        if (snapAnimator != null) {
-            snapAnimator.cancel();
+        // a drag in progress ends here, its remaining events must not move the panel anymore
+        cancelMovement();
+        callback.onDragStarted(PanelStateEvent.Source.PROGRAMMATIC);
+        if (!Float.isNaN(snapTarget)) {
+            // a listener notified about the drag already redirected the panel
+            return;
+        }
+        animateTo(slideOffset, 0);
+    }
+
+    /**
+     * Moves the panel to the start offset and animates it from there, e.g. from the position the
+     * panel had before its geometry changed.
+     */
+    void slideTo(float startSlideOffset, float slideOffset) {
+        cancelMovement();
+        callback.onDragStarted(PanelStateEvent.Source.PROGRAMMATIC);
+        if (!Float.isNaN(snapTarget)) {
+            // a listener notified about the drag already redirected the panel
+            return;
         }
-        callback.onDragStarted();
-        snapAnimator = createAnimator(slideOffset);
-        snapAnimator.start();
+        setSlideOffset(startSlideOffset);
+        animateTo(slideOffset, 0);
     }
 
     float getSlideOffset() {
@@ -237,7 +394,12 @@ class ViewSlideHelper {
     void setSlideOffset(float slideOffset) {
         mSlideOffset = slideOffset;
         int panelTop = callback.computePanelTopPosition(mSlideOffset);
-        callback.getSlideableView().offsetTopAndBottom(panelTop - callback.getSlideableView().getTop());
+        View slideableView = callback.getSlideableView();
+        if (translationMode) {
+            slideableView.setTranslationY(panelTop - slideableView.getTop());
+        } else {
+            slideableView.offsetTopAndBottom(panelTop - slideableView.getTop());
+        }
         callback.onViewPositionChanged(slideOffset);
     }
 
@@ -249,28 +411,236 @@ class ViewSlideHelper {
         }
     }
 
-    @Nullable
-    private ValueAnimator createSnapAnimator(float flingVelocity) {
+    private void snap(float flingVelocity) {
+        releaseVelocity = flingVelocity;
         boolean flingUp = flingVelocity < 0 && callback.isFling(flingVelocity);
         boolean flingDown = flingVelocity > 0 && callback.isFling(flingVelocity);
 
         float snapPoint = callback.calculateSnapPoint(mSlideOffset, flingUp, flingDown);
 
         if (snapPoint == mSlideOffset) {
+            callback.onSnapStarted(mSlideOffset, 0);
             callback.onViewSettled(mSlideOffset);
-            return null;
+            return;
+        }
+
+        animateTo(snapPoint, flingVelocity);
+    }
+
+    /**
+     * Loads and initializes the classes used for touch tracking and snap animations and evaluates
+     * the snap interpolator once, so the first gesture does not pay for it. The panel is not
+     * moved and no callbacks are invoked that change its state.
+     */
+    void prewarm() {
+        long now = SystemClock.uptimeMillis();
+        MotionEvent event = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, 0, 0, 0);
+        VelocityTracker tracker = VelocityTracker.obtain();
+        tracker.addMovement(event);
+        tracker.computeCurrentVelocity(1000);
+        tracker.getYVelocity();
+        tracker.recycle();
+        event.recycle();
+
+        int dragRange = callback.getViewVerticalDragRange();
+        callback.calculateSnapPoint(mSlideOffset, false, false);
+        callback.computePanelTopPosition(mSlideOffset);
+        ValueAnimator animator = ValueAnimator.ofFloat(0f, 1f);
+        animator.setInterpolator(snapInterpolator);
+        animator.setDuration(snapDurationPolicy.getSnapDuration(dragRange, 0, dragRange));
+        animator.setCurrentPlayTime(animator.getDuration() / 2);
+        animator.getAnimatedValue();
+    }
+
+    void setAnimationDriver(@Nullable SnapAnimationDriver animationDriver) {
+        cancelSnap();
+        this.animationDriver = animationDriver;
+    }
+
+    /**
+     * @param velocity The vertical velocity in pixels per second the panel was released with
+     */
+    private void animateTo(float destinationSlideOffset, float velocity) {
+        snapTarget = destinationSlideOffset;
+        snapStartOffset = mSlideOffset;
+        int distance = callback.computePanelTopPosition(destinationSlideOffset) - getPanelTop();
+        // the policy wants the velocity towards the destination, which may be negative
+        float velocityTowardsDestination = distance < 0 ? -velocity : velocity;
+        snapDuration = snapDurationPolicy.getSnapDuration(Math.abs(distance), velocityTowardsDestination,
+                callback.getViewVerticalDragRange());
+        if (translationMode && (animationDriver == null || !animationDriver.isManual())) {
+            snapAnimator = null;
+            animateTranslationTo(destinationSlideOffset);
+        } else {
+            // with manual frames, translation snaps are animated frame by frame as well, since a
+            // ViewPropertyAnimator can only run on the system clock
+            snapAnimator = createAnimator(destinationSlideOffset);
+            if (animationDriver != null) {
+                animationDriver.schedule(snapAnimator);
+            } else {
+                snapAnimator.start();
+            }
+        }
+        callback.onSnapStarted(destinationSlideOffset, snapDuration);
+    }
+
+    /**
+     * @return The current vertical velocity of the running snap in pixels per second, positive
+     * values move the panel down like in touch coordinates
+     */
+    private float getSnapVelocity() {
+        if (Float.isNaN(snapTarget) || snapDuration <= 0) {
+            return 0;
+        }
+        float fraction = getSnapFraction();
+        // derivative of the interpolator, it is only known as a function
+        final float h = 0.01f;
+        float lower = Math.max(0f, fraction - h);
+        float upper = Math.min(1f, fraction + h);
+        float slope = (snapInterpolator.getInterpolation(upper) - snapInterpolator.getInterpolation(lower)) / (upper - lower);
+        float offsetPerSecond = (snapTarget - snapStartOffset) * slope * 1000f / snapDuration;
+        // slide offsets grow upwards
+        return -offsetPerSecond * callback.getViewVerticalDragRange();
+    }
+
+    /**
+     * @return The elapsed fraction of the running snap, before interpolation
+     */
+    private float getSnapFraction() {
+        long playTime = snapAnimator != null
+                ? snapAnimator.getCurrentPlayTime()
+                : SystemClock.uptimeMillis() - snapStartTime;
+        return snapDuration > 0 ? MathUtils.clamp((float) playTime / snapDuration, 0f, 1f) : 1f;
+    }
+
+    /**
+     * Must be called after the geometry of the panel changed. A snap that is animated by the
+     * translation of the panel targets a pixel position of the old geometry, it is restarted
+     * from its current slide offset towards the same snap point in the new geometry. Snaps that
+     * animate the slide offset adapt on their own.
+     */
+    void retargetSnap() {
+        if (!isTranslationSnapRunning()) {
+            return;
+        }
+        float destinationSlideOffset = snapTarget;
+        float currentSlideOffset = snapStartOffset
+                + (destinationSlideOffset - snapStartOffset) * snapInterpolator.getInterpolation(getSnapFraction());
+        snapTarget = Float.NaN;
+        ViewCompat.animate(callback.getSlideableView()).cancel();
+        callback.onTranslationSnapEnded();
+        setSlideOffset(currentSlideOffset);
+        animateTo(destinationSlideOffset, 0);
+    }
+
+    /**
+     * Stops tracking the current gesture and a running snap without settling the panel, e.g.
+     * when the owner moves the panel to another state on its own.
+     */
+    void cancelMovement() {
+        stopTouchTracking();
+        dragging = false;
+        cancelSnap();
+    }
+
+    /**
+     * Ends the current movement of the panel at once, e.g. when it is not visible anymore. A
+     * snap jumps to its destination, a drag is abandoned and the panel settles at the nearest
+     * snap point. The velocity tracker and the animator are released.
+     *
+     * @param moving True, if the owner considers the panel moving, e.g. during a nested scroll
+     *               that was not stopped
+     */
+    void finishMovement(boolean moving) {
+        stopTouchTracking();
+        boolean wasDragging = dragging;
+        dragging = false;
+        float destinationSlideOffset = snapTarget;
+        if (!Float.isNaN(destinationSlideOffset)) {
+            cancelSnap();
+        } else if (wasDragging || moving) {
+            destinationSlideOffset = callback.calculateSnapPoint(mSlideOffset, false, false);
+            callback.onSnapStarted(destinationSlideOffset, 0);
+        } else {
+            return;
+        }
+        setSlideOffset(destinationSlideOffset);
+        callback.onViewSettled(destinationSlideOffset);
+    }
+
+    /**
+     * Stops a running snap animation and keeps the panel at its current position.
+     */
+    private void cancelSnap() {
+        if (snapAnimator != null) {
+            if (animationDriver != null) {
+                animationDriver.unschedule(snapAnimator);
+            }
+            snapAnimator.cancel();
+            snapAnimator = null;
+            snapTarget = Float.NaN;
+        }
+        if (isTranslationSnapRunning()) {
+            snapTarget = Float.NaN;
+            View slideableView = callback.getSlideableView();
+            ViewCompat.animate(slideableView).cancel();
+            callback.onTranslationSnapEnded();
+            // the logical offset is only updated at the end of a translation snap, sync it to
+            // where the animation stopped
+            setSlideOffset(callback.computeSlideOffset(getPanelTop()));
         }
+    }
+
+    /**
+     * Animates the panel by its translation only. Unlike {@link #createAnimator(float)} no work is
+     * done on the UI thread per frame, which allows the animation to run on the RenderThread.
+     * The logical slide offset and the position callbacks are updated once the animation ended.
+     */
+    private void animateTranslationTo(final float destinationSlideOffset) {
+        final View slideableView = callback.getSlideableView();
+        int destinationTop = callback.computePanelTopPosition(destinationSlideOffset);
+        snapStartTime = SystemClock.uptimeMillis();
+        ViewCompat.animate(slideableView)
+                .translationY(destinationTop - slideableView.getTop())
+                .setDuration(snapDuration)
+                .setInterpolator(snapInterpolator)
+                .withLayer()
+                .setListener(new ViewPropertyAnimatorListenerAdapter() {
+                    private boolean cancelled = false;
+
+                    @Override
+                    public void onAnimationCancel(View view) {
+                        cancelled = true;
+                    }
 
-        return createAnimator(snapPoint);
+                    @Override
+                    public void onAnimationEnd(View view) {
+                        ViewCompat.animate(slideableView).setListener(null);
+                        if (!cancelled) {
+                            snapTarget = Float.NaN;
+                            callback.onTranslationSnapEnded();
+                            setSlideOffset(destinationSlideOffset);
+                            callback.onViewSettled(mSlideOffset);
+                        }
+                    }
+                })
+                .start();
+        callback.onTranslationSnapStarted(destinationSlideOffset, snapDuration, snapInterpolator);
     }
 
     private ValueAnimator createAnimator(float destinationSlideOffset) {
         ValueAnimator snapAnimator = ValueAnimator.ofFloat(mSlideOffset, destinationSlideOffset);
         snapAnimator.setInterpolator(snapInterpolator);
+        snapAnimator.setDuration(snapDuration);
         snapAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
             @Override
             public void onAnimationUpdate(ValueAnimator animation) {
-                setSlideOffset((Float) animation.getAnimatedValue());
+                PanelTrace.beginSection(PanelTrace.SNAP_FRAME);
+                try {
+                    setSlideOffset((Float) animation.getAnimatedValue());
+                } finally {
+                    PanelTrace.endSection();
+                }
             }
         });
         snapAnimator.addListener(new AnimatorListenerAdapter() {
@@ -284,6 +654,7 @@ class ViewSlideHelper {
             @Override
             public void onAnimationEnd(Animator animation) {
                 if (!cancelled) {
+                    snapTarget = Float.NaN;
                     callback.onViewSettled(mSlideOffset);
                 }
             }
@@ -300,13 +671,38 @@ class ViewSlideHelper {
 
         boolean isDraggable(float screenX, float screenY);
 
+        /**
+         * Called once a touch on a draggable part of the panel moved beyond the touch slop.
+         *
+         * @param screenX The x position of the initial touch on the screen
+         * @param screenY The y position of the initial touch on the screen
+         * @param deltaY  The vertical distance the finger moved since the initial touch
+         * @return True, if a scrollable child at this position scrolls with this gesture, so the
+         * panel must not move
+         */
+        boolean isScrollableViewDrag(float screenX, float screenY, float deltaY);
+
         /**
          * Called before the panel may start moving due to user interaction or a call to {@link #slideTo(float)}
+         *
+         * @param source What is about to move the panel
          */
-        void onDragStarted();
+        void onDragStarted(@NonNull PanelStateEvent.Source source);
 
         int computePanelTopPosition(float slideOffset);
 
+        /**
+         * Inverse of {@link #computePanelTopPosition(float)}
+         */
+        float computeSlideOffset(int panelTop);
+
+        /**
+         * Called after a touch event moved the panel.
+         *
+         * @param eventTime The time of the event in the {@link SystemClock#uptimeMillis()} time base
+         */
+        void onTouchEventConsumed(long eventTime);
+
         /**
          * Called when the panel position changed due to user interaction or programmatically.
          */
@@ -314,6 +710,30 @@ class ViewSlideHelper {
 
         float calculateSnapPoint(float slideOffset, boolean flingUp, boolean flingDown);
 
+        /**
+         * Called when the panel starts to animate towards a snap point, after a drag, a call to
+         * {@link #slideTo(float)} or when a running snap is retargeted.
+         *
+         * @param targetOffset The slide offset the panel is going to settle at
+         * @param durationMs   The duration of the animation in milliseconds
+         */
+        void onSnapStarted(float targetOffset, long durationMs);
+
+        /**
+         * Called when a snap that animates the translation of the panel starts. Views that move
+         * with the panel must be animated with the same duration and interpolator, since no
+         * position callbacks are invoked until the snap ended.
+         *
+         * @param targetOffset The slide offset the panel is going to settle at
+         */
+        void onTranslationSnapStarted(float targetOffset, long durationMs, @NonNull Interpolator interpolator);
+
+        /**
+         * Called when a snap that animates the translation of the panel ended or was cancelled,
+         * before the position of the panel is updated.
+         */
+        void onTranslationSnapEnded();
+
         /**
          * Called after the view stopped moving due to snapping after a drag or reaching the
          * destination in {@link #slideTo(float)}
@@ -0,0 +1,113 @@
+package de.hafas.slidinguppanel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Frame clock that drives the snap animations of a {@link SlidingUpPanelLayout} deterministically
+ * instead of the system frames, e.g. in plain Robolectric JVM tests:
+ * <pre>
+ * ManualAnimationClock clock = new ManualAnimationClock(panelLayout);
+ * panelLayout.setPanelState(PanelState.EXPANDED);
+ * clock.stepFrame();
+ * // assert intermediate slide offsets...
+ * int frames = clock.runToIdle(100);
+ * </pre>
+ * The clock drives all panels of the layout. While it is installed,
+ * {@link SlidingUpPanelLayout.SlideMode#TRANSLATION} snaps are animated frame by frame as well.
+ * <p>
+ * The clock must be used on the thread the layout runs on, which needs a Looper.
+ */
+final class ManualAnimationClock {
+    /**
+     * Frame interval of a 60 Hz display
+     */
+    static final long DEFAULT_FRAME_INTERVAL_MS = 16;
+
+    private final SnapAnimationDriver driver;
+    private final long frameIntervalMs;
+
+    private int frameCount = 0;
+    private long lastFrameWorkNanos = 0;
+
+    ManualAnimationClock(@NonNull SlidingUpPanelLayout layout) {
+        this(layout, DEFAULT_FRAME_INTERVAL_MS);
+    }
+
+    /**
+     * @param frameIntervalMs The time each {@link #stepFrame()} advances the animations by
+     */
+    ManualAnimationClock(@NonNull SlidingUpPanelLayout layout, long frameIntervalMs) {
+        if (frameIntervalMs <= 0) {
+            throw new IllegalArgumentException("Frame interval must be positive");
+        }
+        this.frameIntervalMs = frameIntervalMs;
+        driver = layout.getSnapAnimationDriver();
+        driver.setManual(true);
+    }
+
+    /**
+     * @return The time each {@link #stepFrame()} advances the animations by
+     */
+    long getFrameIntervalMs() {
+        return frameIntervalMs;
+    }
+
+    /**
+     * @return True, if no animation is running
+     */
+    boolean isIdle() {
+        return driver.isIdle();
+    }
+
+    /**
+     * @return Number of frames stepped so far
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Time spent in the last {@link #stepFrame()} in nanoseconds, which includes
+     * positioning the panels and dispatching the slide listeners
+     */
+    long getLastFrameWorkNanos() {
+        return lastFrameWorkNanos;
+    }
+
+    /**
+     * Advances all running animations by one frame interval. Animations that reach their end are
+     * finished, which settles their panels.
+     */
+    void stepFrame() {
+        final long start = System.nanoTime();
+        frameCount++;
+        driver.advance(frameIntervalMs);
+        lastFrameWorkNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Steps frames until all animations finished.
+     *
+     * @param maxFrames Maximum number of frames to step
+     * @return Number of frames stepped
+     * @throws IllegalStateException If the animations did not finish within maxFrames
+     */
+    int runToIdle(int maxFrames) {
+        int frames = 0;
+        while (!isIdle()) {
+            if (frames == maxFrames) {
+                throw new IllegalStateException("Animations did not finish within " + maxFrames + " frames");
+            }
+            stepFrame();
+            frames++;
+        }
+        return frames;
+    }
+
+    /**
+     * Returns the layout to the system frames, running animations continue from where they are.
+     */
+    void release() {
+        driver.setManual(false);
+    }
+}
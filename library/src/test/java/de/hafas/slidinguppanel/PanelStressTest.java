@@ -0,0 +1,327 @@
+package de.hafas.slidinguppanel;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.view.ViewCompat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives a panel with random gestures, nested scrolls, state and height changes and size and
+ * visibility changes and checks after every step that slide offset, state and position of the
+ * panel are consistent.
+ * <p>
+ * The run uses a fixed seed, another one can be passed with {@code -DpanelStressTest.seed=<seed>}.
+ * The throughput and the allocations per operation type are written to {@link #REPORT_FILE}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PanelStressTest {
+    private static final long DEFAULT_SEED = 20210045L;
+    private static final String SEED_PROPERTY = "panelStressTest.seed";
+    private static final File REPORT_FILE = new File("build/reports/panelStressTest.txt");
+    private static final int STEPS = 2000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private enum Operation {
+        DRAG, NESTED_SCROLL, SET_PANEL_STATE, SET_PANEL_HEIGHT, RESIZE, VISIBILITY, FRAMES
+    }
+
+    private ActivityController<Activity> controller;
+    private SlidingUpPanelLayout layout;
+    private View panel;
+    private ManualAnimationClock clock;
+    private Random random;
+    private long seed;
+    private int step;
+    private String lastAction;
+    private long eventTime;
+
+    private final int[] operationCounts = new int[Operation.values().length];
+    private final long[] operationNanos = new long[Operation.values().length];
+    private final long[] operationAllocatedBytes = new long[Operation.values().length];
+    @Nullable
+    private MBeanServer platformMBeanServer;
+    @Nullable
+    private ObjectName threadBeanName;
+
+    @Before
+    public void setUp() {
+        controller = Robolectric.buildActivity(Activity.class).setup();
+        Activity activity = controller.get();
+        layout = new SlidingUpPanelLayout(activity);
+        layout.addView(new View(activity), new SlidingUpPanelLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        panel = new FrameLayout(activity);
+        layout.addView(panel, new SlidingUpPanelLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.setPanelHeight(200);
+        layout.setAnchorPoint(0.5f);
+        layout.setMetricsEnabled(true);
+        layout.setStrictModePolicy(new PanelStrictMode.Policy.Builder()
+                .detectInvariantViolations()
+                .penaltyDeath()
+                .build());
+        clock = new ManualAnimationClock(layout);
+
+        FrameLayout root = new FrameLayout(activity);
+        root.addView(layout, new FrameLayout.LayoutParams(WIDTH, HEIGHT));
+        activity.setContentView(root);
+        idle();
+
+        seed = Long.getLong(SEED_PROPERTY, DEFAULT_SEED);
+        random = new Random(seed);
+        eventTime = SystemClock.uptimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        controller.pause().stop().destroy();
+    }
+
+    @Test
+    public void randomOperationsKeepPanelConsistent() throws IOException {
+        for (step = 0; step < STEPS; step++) {
+            final Operation operation = nextOperation();
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            switch (operation) {
+                case DRAG:
+                    drag();
+                    break;
+                case NESTED_SCROLL:
+                    nestedScroll();
+                    break;
+                case SET_PANEL_STATE:
+                    setRandomPanelState();
+                    break;
+                case SET_PANEL_HEIGHT:
+                    lastAction = "setPanelHeight";
+                    layout.setPanelHeight(100 + random.nextInt(300));
+                    break;
+                case RESIZE:
+                    changeSize();
+                    break;
+                case VISIBILITY:
+                    lastAction = "toggle visibility";
+                    panel.setVisibility(panel.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+                    break;
+                default:
+                    lastAction = "frames";
+                    stepFrames(random.nextInt(30));
+                    break;
+            }
+            idle();
+            record(operation, System.nanoTime() - start, getAllocatedBytes() - allocatedBefore);
+            checkInvariants();
+        }
+        clock.runToIdle(1000);
+        idle();
+        checkInvariants();
+
+        writeReport();
+        for (Operation operation : Operation.values()) {
+            assertTrue("seed " + seed + ": " + operation + " never ran", operationCounts[operation.ordinal()] > 0);
+        }
+    }
+
+    @NonNull
+    private Operation nextOperation() {
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                return Operation.DRAG;
+            case 2:
+                return Operation.NESTED_SCROLL;
+            case 3:
+                return Operation.SET_PANEL_STATE;
+            case 4:
+                return Operation.SET_PANEL_HEIGHT;
+            case 5:
+                return Operation.RESIZE;
+            case 6:
+                return Operation.VISIBILITY;
+            default:
+                return Operation.FRAMES;
+        }
+    }
+
+    private void drag() {
+        lastAction = "drag";
+        int[] location = new int[2];
+        panel.getLocationOnScreen(location);
+        float x = location[0] + WIDTH / 2f;
+        float y = location[1] + 10 + random.nextInt(50);
+        long downTime = nextEventTime();
+        dispatchTouch(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0));
+        int moves = random.nextInt(20);
+        float dy = (random.nextFloat() - 0.5f) * 120;
+        for (int i = 0; i < moves; i++) {
+            y += dy;
+            dispatchTouch(MotionEvent.obtain(downTime, nextEventTime(), MotionEvent.ACTION_MOVE, x, y, 0));
+            if (random.nextInt(4) == 0) {
+                clock.stepFrame();
+            }
+        }
+        int action = random.nextInt(10) == 0 ? MotionEvent.ACTION_CANCEL : MotionEvent.ACTION_UP;
+        dispatchTouch(MotionEvent.obtain(downTime, nextEventTime(), action, x, y, 0));
+    }
+
+    private void dispatchTouch(MotionEvent event) {
+        int[] location = new int[2];
+        layout.getLocationOnScreen(location);
+        event.offsetLocation(-location[0], -location[1]);
+        layout.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    private void nestedScroll() {
+        lastAction = "nested scroll";
+        View target = panel;
+        if (!layout.onStartNestedScroll(target, target, ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH)) {
+            return;
+        }
+        layout.onNestedScrollAccepted(target, target, ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH);
+        int scrolls = random.nextInt(20);
+        int dy = random.nextInt(120) - 60;
+        int[] consumed = new int[2];
+        for (int i = 0; i < scrolls; i++) {
+            consumed[0] = 0;
+            consumed[1] = 0;
+            layout.onNestedPreScroll(target, 0, dy, consumed, ViewCompat.TYPE_TOUCH);
+            layout.onNestedScroll(target, 0, consumed[1], 0, dy - consumed[1], ViewCompat.TYPE_TOUCH);
+            // the release velocity of a nested scroll is measured with the uptime
+            shadowOf(Looper.getMainLooper()).idleFor(16, TimeUnit.MILLISECONDS);
+        }
+        layout.onStopNestedScroll(target, ViewCompat.TYPE_TOUCH);
+    }
+
+    private void setRandomPanelState() {
+        PanelState[] states = {PanelState.COLLAPSED, PanelState.ANCHORED, PanelState.EXPANDED, PanelState.HIDDEN};
+        PanelState state = states[random.nextInt(states.length)];
+        lastAction = "setPanelState(" + state + ")";
+        layout.setPanelState(state);
+    }
+
+    private void changeSize() {
+        lastAction = "change size";
+        ViewGroup.LayoutParams lp = layout.getLayoutParams();
+        lp.height = HEIGHT / 2 + random.nextInt(HEIGHT / 2);
+        layout.setLayoutParams(lp);
+    }
+
+    private void stepFrames(int frames) {
+        for (int i = 0; i < frames && !clock.isIdle(); i++) {
+            clock.stepFrame();
+        }
+    }
+
+    private long nextEventTime() {
+        eventTime += 8 + random.nextInt(16);
+        return eventTime;
+    }
+
+    private void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private void checkInvariants() {
+        final String message = "seed " + seed + ", step " + step + " (" + lastAction + ")";
+        final float slideOffset = layout.getSlideOffset();
+        final PanelState state = layout.getPanelState();
+        assertTrue(message + ": slide offset " + slideOffset + " out of range", slideOffset >= -1f && slideOffset <= 1f);
+        if (state != PanelState.DRAGGING) {
+            assertEquals(message + ": slide offset of state " + state, getSlideOffsetForState(state), slideOffset, 0.001f);
+        }
+        assertEquals(message + ": panel top", layout.computePanelTopPosition(slideOffset), panel.getTop());
+        assertNull(message, layout.findInvariantViolation());
+    }
+
+    private float getSlideOffsetForState(@NonNull PanelState state) {
+        switch (state) {
+            case EXPANDED:
+                return 1f;
+            case ANCHORED:
+                // the panel is higher than its panel height, so the anchor point can be reached
+                return layout.getAnchorPoint();
+            case HIDDEN:
+                return -1f;
+            default:
+                return 0f;
+        }
+    }
+
+    private void record(@NonNull Operation operation, long nanos, long allocatedBytes) {
+        operationCounts[operation.ordinal()]++;
+        operationNanos[operation.ordinal()] += nanos;
+        operationAllocatedBytes[operation.ordinal()] += allocatedBytes;
+    }
+
+    /**
+     * @return The bytes allocated by this thread so far, or 0 if the VM does not count them
+     */
+    private long getAllocatedBytes() {
+        try {
+            if (platformMBeanServer == null) {
+                platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
+                threadBeanName = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+            }
+            // only some VMs provide this operation, it is not part of java.lang.management
+            return (Long) platformMBeanServer.invoke(threadBeanName, "getThreadAllocatedBytes",
+                    new Object[]{Thread.currentThread().getId()}, new String[]{long.class.getName()});
+        } catch (JMException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private void writeReport() throws IOException {
+        File dir = REPORT_FILE.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        try (Writer writer = new FileWriter(REPORT_FILE)) {
+            writer.write(String.format(Locale.ROOT, "seed %d, %d steps, %d frames%n", seed, STEPS, clock.getFrameCount()));
+            writer.write(String.format(Locale.ROOT, "%-16s %6s %12s %14s%n", "operation", "count", "ops/s", "bytes/op"));
+            for (Operation operation : Operation.values()) {
+                final int count = operationCounts[operation.ordinal()];
+                final long nanos = operationNanos[operation.ordinal()];
+                writer.write(String.format(Locale.ROOT, "%-16s %6d %12.0f %14d%n", operation, count,
+                        nanos > 0 ? count / (nanos / 1e9) : 0, count > 0 ? operationAllocatedBytes[operation.ordinal()] / count : 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.hafas.slidinguppanel;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+
+import de.hafas.slidinguppanel.SlidingUpPanelLayout.PanelState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Steps snap animations frame by frame and checks the positions of the panel in between.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SnapAnimationTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private ActivityController<Activity> controller;
+    private SlidingUpPanelLayout layout;
+    private View panel;
+    private ManualAnimationClock clock;
+
+    @Before
+    public void setUp() {
+        controller = Robolectric.buildActivity(Activity.class).setup();
+        Activity activity = controller.get();
+        layout = new SlidingUpPanelLayout(activity);
+        layout.addView(new View(activity), new SlidingUpPanelLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        panel = new FrameLayout(activity);
+        layout.addView(panel, new SlidingUpPanelLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.setPanelHeight(200);
+        layout.setAnchorPoint(0.5f);
+        clock = new ManualAnimationClock(layout);
+
+        FrameLayout root = new FrameLayout(activity);
+        root.addView(layout, new FrameLayout.LayoutParams(WIDTH, HEIGHT));
+        activity.setContentView(root);
+        idle();
+    }
+
+    @After
+    public void tearDown() {
+        controller.pause().stop().destroy();
+    }
+
+    @Test
+    public void expandMovesPanelUpEveryFrame() {
+        layout.setPanelState(PanelState.EXPANDED);
+        assertEquals(PanelState.DRAGGING, layout.getPanelState());
+        assertEquals(0f, layout.getSlideOffset(), 0f);
+
+        float previousOffset = 0f;
+        int frames = 0;
+        while (!clock.isIdle()) {
+            clock.stepFrame();
+            frames++;
+            float offset = layout.getSlideOffset();
+            assertTrue("frame " + frames + ": " + offset + " after " + previousOffset, offset > previousOffset);
+            assertTrue("frame " + frames + ": " + offset, offset <= 1f);
+            assertEquals(layout.computePanelTopPosition(offset), panel.getTop());
+            if (!clock.isIdle()) {
+                assertEquals(PanelState.DRAGGING, layout.getPanelState());
+            }
+            previousOffset = offset;
+        }
+        assertTrue("the snap must take more than one frame, took " + frames, frames > 1);
+        assertEquals(1f, layout.getSlideOffset(), 0f);
+        assertEquals(PanelState.EXPANDED, layout.getPanelState());
+    }
+
+    @Test
+    public void collapseFromAnchorStopsAtCollapsedOffset() {
+        layout.setPanelState(PanelState.ANCHORED);
+        clock.runToIdle(100);
+        assertEquals(0.5f, layout.getSlideOffset(), 0.001f);
+        assertEquals(PanelState.ANCHORED, layout.getPanelState());
+
+        layout.setPanelState(PanelState.COLLAPSED);
+        clock.stepFrame();
+        float firstFrameOffset = layout.getSlideOffset();
+        assertTrue("first frame at " + firstFrameOffset, firstFrameOffset > 0f && firstFrameOffset < 0.5f);
+
+        clock.runToIdle(100);
+        assertEquals(0f, layout.getSlideOffset(), 0f);
+        assertEquals(PanelState.COLLAPSED, layout.getPanelState());
+        assertEquals(layout.computePanelTopPosition(0f), panel.getTop());
+    }
+
+    @Test
+    public void redirectedSnapContinuesFromCurrentOffset() {
+        layout.setPanelState(PanelState.EXPANDED);
+        clock.stepFrame();
+        clock.stepFrame();
+        float midOffset = layout.getSlideOffset();
+        assertTrue(midOffset > 0f && midOffset < 1f);
+
+        layout.setPanelState(PanelState.COLLAPSED);
+        clock.stepFrame();
+        assertTrue("the panel must turn around at " + midOffset + ", is at " + layout.getSlideOffset(),
+                layout.getSlideOffset() < midOffset);
+
+        clock.runToIdle(100);
+        assertEquals(PanelState.COLLAPSED, layout.getPanelState());
+    }
+
+    private void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}